@@ -31,7 +31,7 @@ UNLOCK TABLES;
 
 LOCK TABLES `classroom` WRITE;
 /*!40000 ALTER TABLE `classroom` DISABLE KEYS */;
-INSERT INTO `classroom` VALUES (1,'',80,'A13',1),(2,'',80,'A22',1),(3,'',80,'B32',2);
+INSERT INTO `classroom` VALUES (1,'',80,'A13',1,0),(2,'',80,'A22',1,0),(3,'',80,'B32',2,0);
 /*!40000 ALTER TABLE `classroom` ENABLE KEYS */;
 UNLOCK TABLES;
 
@@ -50,7 +50,7 @@ UNLOCK TABLES;
 
 LOCK TABLES `laboratory` WRITE;
 /*!40000 ALTER TABLE `laboratory` DISABLE KEYS */;
-INSERT INTO `laboratory` VALUES (1,'',5,'SI1',2),(2,'',2,'SI5',2),(3,'',10,'SI3',2);
+INSERT INTO `laboratory` VALUES (1,'',5,'SI1',2,0),(2,'',2,'SI5',2,0),(3,'',10,'SI3',2,0);
 /*!40000 ALTER TABLE `laboratory` ENABLE KEYS */;
 UNLOCK TABLES;
 
@@ -28,7 +28,23 @@ CREATE TABLE `building` (
   `BUILDING_ID` bigint(20) NOT NULL AUTO_INCREMENT,
   `BUILDING_ADDRESS` varchar(255) DEFAULT NULL,
   `BUILDING_NAME` varchar(255) DEFAULT NULL,
-  PRIMARY KEY (`BUILDING_ID`)
+  PRIMARY KEY (`BUILDING_ID`),
+  KEY `IDX_BUILDING_NAME` (`BUILDING_NAME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `change_log`
+--
+
+DROP TABLE IF EXISTS `change_log`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `change_log` (
+  `CHANGE_ID` bigint(20) NOT NULL AUTO_INCREMENT,
+  `ROOM_ID` bigint(20) NOT NULL,
+  `ROOM_TYPE` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`CHANGE_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -45,8 +61,10 @@ CREATE TABLE `classroom` (
   `CLASSROOM_CAPACITY` int(11) DEFAULT NULL,
   `CLASSROOM_NAME` varchar(255) DEFAULT NULL,
   `BUILDING_ID` bigint(20) DEFAULT NULL,
+  `CLASSROOM_VERSION` bigint(20) NOT NULL DEFAULT '0',
   PRIMARY KEY (`CLASSROOM_ID`),
   KEY `FKd5gb12a7jyvkdtd7v2yr1u372` (`BUILDING_ID`),
+  KEY `IDX_CLASSROOM_AVAILABLE` (`CLASSROOM_AVAILABLE`,`BUILDING_ID`,`CLASSROOM_CAPACITY`,`CLASSROOM_NAME`,`CLASSROOM_VERSION`),
   CONSTRAINT `FKd5gb12a7jyvkdtd7v2yr1u372` FOREIGN KEY (`BUILDING_ID`) REFERENCES `building` (`BUILDING_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -84,8 +102,10 @@ CREATE TABLE `laboratory` (
   `LABORATORY_CAPACITY` int(11) DEFAULT NULL,
   `LABORATORY_NAME` varchar(255) DEFAULT NULL,
   `BUILDING_ID` bigint(20) DEFAULT NULL,
+  `LABORATORY_VERSION` bigint(20) NOT NULL DEFAULT '0',
   PRIMARY KEY (`LABORATORY_ID`),
   KEY `FK28wrnav1u7a6urlbera75caj1` (`BUILDING_ID`),
+  KEY `IDX_LABORATORY_AVAILABLE` (`LABORATORY_AVAILABLE`,`BUILDING_ID`,`LABORATORY_CAPACITY`,`LABORATORY_NAME`,`LABORATORY_VERSION`),
   CONSTRAINT `FK28wrnav1u7a6urlbera75caj1` FOREIGN KEY (`BUILDING_ID`) REFERENCES `building` (`BUILDING_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
@@ -100,8 +120,8 @@ DROP TABLE IF EXISTS `laboratory_booking`;
 CREATE TABLE `laboratory_booking` (
   `LABORATORY_ID` bigint(20) NOT NULL,
   `STUDENT_ID` bigint(20) NOT NULL,
+  PRIMARY KEY (`LABORATORY_ID`,`STUDENT_ID`),
   KEY `FKc70wq04hyf7gdabpc4l93hgly` (`STUDENT_ID`),
-  KEY `FK21g3xhh565k8avgvhgmjpefj0` (`LABORATORY_ID`),
   CONSTRAINT `FK21g3xhh565k8avgvhgmjpefj0` FOREIGN KEY (`LABORATORY_ID`) REFERENCES `laboratory` (`LABORATORY_ID`),
   CONSTRAINT `FKc70wq04hyf7gdabpc4l93hgly` FOREIGN KEY (`STUDENT_ID`) REFERENCES `student` (`STUDENT_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
@@ -119,7 +139,8 @@ CREATE TABLE `student` (
   `STUDENT_EMAIL` varchar(255) DEFAULT NULL,
   `STUDENT_LASTNAME` varchar(255) DEFAULT NULL,
   `STUDENT_NAME` varchar(255) DEFAULT NULL,
-  PRIMARY KEY (`STUDENT_ID`)
+  PRIMARY KEY (`STUDENT_ID`),
+  UNIQUE KEY `UK_STUDENT_EMAIL` (`STUDENT_EMAIL`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -135,7 +156,8 @@ CREATE TABLE `teacher` (
   `TEACHER_EMAIL` varchar(255) DEFAULT NULL,
   `TEACHER_LASTNAME` varchar(255) DEFAULT NULL,
   `TEACHER_NAME` varchar(255) DEFAULT NULL,
-  PRIMARY KEY (`TEACHER_ID`)
+  PRIMARY KEY (`TEACHER_ID`),
+  UNIQUE KEY `UK_TEACHER_EMAIL` (`TEACHER_EMAIL`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
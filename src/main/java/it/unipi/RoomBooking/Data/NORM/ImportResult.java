@@ -0,0 +1,51 @@
+package it.unipi.RoomBooking.Data.NORM;
+
+public class ImportResult {
+    private long read;
+    private long inserted;
+    private long failed;
+    private long startTime = System.nanoTime();
+    private long elapsed;
+
+    public void add(int rows, int insertedRows) {
+        // A negative count means that the whole chunk was rolled back.
+        this.read += rows;
+        if (insertedRows < 0) {
+            this.failed += rows;
+        } else {
+            this.inserted += insertedRows;
+        }
+        this.elapsed = System.nanoTime() - this.startTime;
+    }
+
+    public void addMalformed() {
+        this.read++;
+        this.failed++;
+    }
+
+    public long getRead() {
+        return this.read;
+    }
+
+    public long getInserted() {
+        return this.inserted;
+    }
+
+    public long getSkipped() {
+        // Rows already stored, repeated in the file or referring to an unknown building.
+        return this.read - this.inserted - this.failed;
+    }
+
+    public long getFailed() {
+        return this.failed;
+    }
+
+    public long getRowsPerSecond() {
+        return this.elapsed == 0 ? 0 : this.read * 1000000000L / this.elapsed;
+    }
+
+    public String toString() {
+        return String.format("%d rows read: %d inserted, %d skipped, %d failed (%d rows/s)", read, inserted,
+                getSkipped(), failed, getRowsPerSecond());
+    }
+}
@@ -0,0 +1,42 @@
+package it.unipi.RoomBooking.Data.NORM;
+
+public class LaboratorySeats {
+    private long id;
+    private String name;
+    private String building;
+    private int capacity;
+    private long booked;
+
+    public LaboratorySeats(long id, String name, String building, int capacity, long booked) {
+        //Constructor for the grouped seat count query
+        this.id = id;
+        this.name = name;
+        this.building = building;
+        this.capacity = capacity;
+        this.booked = booked;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getBuilding() {
+        return this.building;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public long getBooked() {
+        return this.booked;
+    }
+
+    public String getAvailable() {
+        return Long.toString(this.capacity - this.booked);
+    }
+}
@@ -3,18 +3,36 @@ package it.unipi.RoomBooking.Data.ORM;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import it.unipi.RoomBooking.Data.Interface.BuildingInterface;
 
 @Entity
-@Table(name = "building")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "building")
+@Table(name = "building", indexes = @Index(name = "IDX_BUILDING_NAME", columnList = "BUILDING_NAME"))
+@NamedQueries({
+        @NamedQuery(name = "Building.findByName", query = "SELECT b FROM Building b WHERE b.buildingName = :name",
+                hints = { @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+                        @QueryHint(name = "org.hibernate.cacheRegion", value = "building-queries") }),
+        @NamedQuery(name = "Building.findAll", query = "SELECT b FROM Building b",
+                hints = { @QueryHint(name = "org.hibernate.cacheable", value = "true"),
+                        @QueryHint(name = "org.hibernate.cacheRegion", value = "building-queries") }),
+        @NamedQuery(name = "Building.findByNames", query = "SELECT b FROM Building b WHERE b.buildingName IN :names") })
 public class Building implements BuildingInterface {
     @Id
     @Column(name = "BUILDING_ID")
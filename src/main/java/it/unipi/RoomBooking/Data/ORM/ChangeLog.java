@@ -0,0 +1,55 @@
+package it.unipi.RoomBooking.Data.ORM;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "change_log")
+@NamedQueries({
+        @NamedQuery(name = "ChangeLog.findLast", query = "SELECT MAX(c.changeId) FROM ChangeLog c"),
+        @NamedQuery(name = "ChangeLog.findFirst", query = "SELECT MIN(c.changeId) FROM ChangeLog c"),
+        // Changes of every room type, so that a missing id is a transaction not committed yet.
+        @NamedQuery(name = "ChangeLog.findSince", query = "SELECT c FROM ChangeLog c"
+                + " WHERE c.changeId > :lastChange ORDER BY c.changeId"),
+        @NamedQuery(name = "ChangeLog.findByIds", query = "SELECT c FROM ChangeLog c WHERE c.changeId IN :ids"),
+        @NamedQuery(name = "ChangeLog.deleteBefore", query = "DELETE FROM ChangeLog c WHERE c.changeId < :changeId") })
+public class ChangeLog {
+    // Written in the same transaction as the change to the room. The id is taken at insert time, so a
+    // transaction can commit a lower id after another one has committed a higher id.
+    @Id
+    @Column(name = "CHANGE_ID")
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long changeId;
+
+    @Column(name = "ROOM_TYPE")
+    private String roomType;
+
+    @Column(name = "ROOM_ID")
+    private long roomId;
+
+    public ChangeLog() {
+    }
+
+    public ChangeLog(String roomType, long roomId) {
+        this.roomType = roomType;
+        this.roomId = roomId;
+    }
+
+    public long getId() {
+        return this.changeId;
+    }
+
+    public String getRoomType() {
+        return this.roomType;
+    }
+
+    public long getRoomId() {
+        return this.roomId;
+    }
+}
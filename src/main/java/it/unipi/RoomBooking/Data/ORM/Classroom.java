@@ -3,22 +3,51 @@ package it.unipi.RoomBooking.Data.ORM;
 import java.util.ArrayList;
 import java.util.Collection;
 
-import javax.persistence.CascadeType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import it.unipi.RoomBooking.Data.Interface.Room;
 
 @Entity
-@Table(name="classroom")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "classroom")
+@Table(name="classroom", indexes = @Index(name = "IDX_CLASSROOM_AVAILABLE",
+        columnList = "CLASSROOM_AVAILABLE, BUILDING_ID, CLASSROOM_CAPACITY, CLASSROOM_NAME, CLASSROOM_VERSION"))
+@NamedEntityGraph(name = "Classroom.bookings", attributeNodes = {
+        @NamedAttributeNode("building"), @NamedAttributeNode(value = "classroomBookings", subgraph = "booking") },
+        subgraphs = @NamedSubgraph(name = "booking", attributeNodes = @NamedAttributeNode("teacher")))
+// DISTINCT only collapses the rows of fetched bookings, it is not sent to the database.
+@NamedQueries({
+        @NamedQuery(name = "Classroom.findAvailable", query = "SELECT DISTINCT c FROM Classroom c WHERE c.classroomAvailable = true",
+                hints = @QueryHint(name = "hibernate.query.passDistinctThrough", value = "false")),
+        @NamedQuery(name = "Classroom.findByIds", query = "SELECT DISTINCT c FROM Classroom c WHERE c.classroomId IN :ids",
+                hints = @QueryHint(name = "hibernate.query.passDistinctThrough", value = "false")),
+        // The free slot computed in SQL: f (both), m or a. No booking or teacher is loaded.
+        @NamedQuery(name = "Classroom.findFreeSlot", query = "SELECT new it.unipi.RoomBooking.Data.NORM.Available("
+                + "c.classroomName, b.buildingName, CASE WHEN COUNT(cb) = 0 THEN 'f'"
+                + " WHEN MIN(cb.classroomBookingSchedule) = 'a' THEN 'm' ELSE 'a' END, 'cla', c.classroomId, c.classroomCapacity)"
+                + " FROM Classroom c JOIN c.building b LEFT JOIN c.classroomBookings cb WHERE c.classroomId = :classroomId"
+                + " GROUP BY c.classroomId, c.classroomName, b.buildingName, c.classroomCapacity") })
 public class Classroom implements Room {
     @Id
     @Column(name = "CLASSROOM_ID")
@@ -34,11 +63,17 @@ public class Classroom implements Room {
     @Column(name = "CLASSROOM_AVAILABLE")
     private Boolean classroomAvailable;
 
+    // Checked on every update, so concurrent bookings of the same room cannot both commit.
+    @Version
+    @Column(name = "CLASSROOM_VERSION")
+    private long classroomVersion;
+
     @ManyToOne(fetch = FetchType.EAGER)
     @JoinColumn(name = "BUILDING_ID")
     private Building building;
 
-    @OneToMany(mappedBy = "classroom", fetch = FetchType.EAGER, cascade = CascadeType.ALL)
+    // No cascade: bookings are persisted and removed one by one, a flush does not walk the collection.
+    @OneToMany(mappedBy = "classroom", fetch = FetchType.LAZY)
     private Collection<ClassroomBooking> classroomBookings = new ArrayList<ClassroomBooking>();
 
     public void setName(String name){
@@ -8,6 +8,8 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 import it.unipi.RoomBooking.Data.Interface.Booking;
@@ -16,6 +18,11 @@ import it.unipi.RoomBooking.Data.Interface.Room;
 
 @Entity
 @Table(name = "classroom_booking")
+@NamedQueries({
+        @NamedQuery(name = "ClassroomBooking.findClassroomId", query = "SELECT cb.classroom.classroomId FROM ClassroomBooking cb"
+                + " WHERE cb.classroomBookingId = :bookingId"),
+        @NamedQuery(name = "ClassroomBooking.delete", query = "DELETE FROM ClassroomBooking cb"
+                + " WHERE cb.classroomBookingId = :bookingId") })
 public class ClassroomBooking implements Booking {
     @Id
     @Column(name = "BOOKING_ID")
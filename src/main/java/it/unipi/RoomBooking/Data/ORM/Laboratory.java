@@ -1,25 +1,46 @@
 package it.unipi.RoomBooking.Data.ORM;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
-import javax.persistence.CascadeType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import it.unipi.RoomBooking.Data.Interface.Room;
 
 @Entity
-@Table(name = "laboratory")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "laboratory")
+@Table(name = "laboratory", indexes = @Index(name = "IDX_LABORATORY_AVAILABLE",
+        columnList = "LABORATORY_AVAILABLE, BUILDING_ID, LABORATORY_CAPACITY, LABORATORY_NAME, LABORATORY_VERSION"))
+@NamedQueries({
+        // Booked seats are counted in SQL, no student is loaded.
+        @NamedQuery(name = "Laboratory.findAvailableSeats", query = "SELECT new it.unipi.RoomBooking.Data.NORM.LaboratorySeats("
+                + "l.laboratoryId, l.laboratoryName, b.buildingName, l.laboratoryCapacity, COUNT(s))"
+                + " FROM Laboratory l JOIN l.building b LEFT JOIN l.bookings s WHERE l.laboratoryAvailable = true"
+                + " GROUP BY l.laboratoryId, l.laboratoryName, b.buildingName, l.laboratoryCapacity"),
+        @NamedQuery(name = "Laboratory.findAvailableSeatsByIds", query = "SELECT new it.unipi.RoomBooking.Data.NORM.LaboratorySeats("
+                + "l.laboratoryId, l.laboratoryName, b.buildingName, l.laboratoryCapacity, COUNT(s))"
+                + " FROM Laboratory l JOIN l.building b LEFT JOIN l.bookings s"
+                + " WHERE l.laboratoryAvailable = true AND l.laboratoryId IN :ids"
+                + " GROUP BY l.laboratoryId, l.laboratoryName, b.buildingName, l.laboratoryCapacity") })
 public class Laboratory implements Room {
     @Id
     @Column(name = "LABORATORY_ID")
@@ -35,10 +56,14 @@ public class Laboratory implements Room {
     @Column(name = "LABORATORY_AVAILABLE")
     private boolean laboratoryAvailable;
 
-    @ManyToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL)
-    @JoinTable(name = "laboratory_booking", joinColumns = {
-            @JoinColumn(name = "LABORATORY_ID") }, inverseJoinColumns = { @JoinColumn(name = "STUDENT_ID") })
-    private Collection<Student> students = new ArrayList<Student>();
+    // Checked on every update, so concurrent bookings of the last seat cannot both commit.
+    @Version
+    @Column(name = "LABORATORY_VERSION")
+    private long laboratoryVersion;
+
+    // Read side only: seats are booked and cancelled as LaboratoryBooking rows.
+    @OneToMany(mappedBy = "laboratory", fetch = FetchType.LAZY)
+    private Set<LaboratoryBooking> bookings = new HashSet<LaboratoryBooking>();
 
     @ManyToOne(fetch = FetchType.EAGER)
     @JoinColumn(name = "BUILDING_ID")
@@ -52,10 +77,6 @@ public class Laboratory implements Room {
         this.laboratoryCapacity = capacity;
     }
 
-    public void setStudent(Student student) {
-        this.students.add(student);
-    }
-
     public void setAvailable(Boolean available) {
         this.laboratoryAvailable = available;
     }
@@ -80,20 +101,12 @@ public class Laboratory implements Room {
         return this.laboratoryAvailable;
     }
 
-    public Collection<Student> getBookings() {
-        return this.students;
+    public Collection<LaboratoryBooking> getBookings() {
+        return this.bookings;
     }
 
     public String getBuilding() {
         return this.building.getName();
     }
 
-    public void deleteBooking(Student student) {
-        this.students.remove(student);
-    }
-
-    public int getBookingNumber() {
-        return students.size();
-    }
-
-}
\ No newline at end of file
+}
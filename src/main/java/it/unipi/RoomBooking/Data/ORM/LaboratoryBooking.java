@@ -0,0 +1,53 @@
+package it.unipi.RoomBooking.Data.ORM;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/*
+ * A seat booked by a student. Booking or cancelling a seat inserts or deletes one
+ * row, keyed by (LABORATORY_ID, STUDENT_ID), whatever the size of the laboratory.
+ */
+@Entity
+@Table(name = "laboratory_booking")
+@IdClass(LaboratoryBookingId.class)
+@NamedQueries({
+        @NamedQuery(name = "LaboratoryBooking.countByLaboratory", query = "SELECT COUNT(lb) FROM LaboratoryBooking lb"
+                + " WHERE lb.laboratory.laboratoryId = :laboratoryId"),
+        @NamedQuery(name = "LaboratoryBooking.findByStudent", query = "SELECT lb FROM LaboratoryBooking lb"
+                + " JOIN FETCH lb.laboratory l JOIN FETCH l.building WHERE lb.student.studentId = :studentId"),
+        @NamedQuery(name = "LaboratoryBooking.delete", query = "DELETE FROM LaboratoryBooking lb"
+                + " WHERE lb.laboratory.laboratoryId = :laboratoryId AND lb.student.studentId = :studentId") })
+public class LaboratoryBooking {
+    @Id
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "LABORATORY_ID")
+    private Laboratory laboratory;
+
+    @Id
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "STUDENT_ID")
+    private Student student;
+
+    public LaboratoryBooking() {
+    }
+
+    public LaboratoryBooking(Laboratory laboratory, Student student) {
+        this.laboratory = laboratory;
+        this.student = student;
+    }
+
+    public Laboratory getLaboratory() {
+        return this.laboratory;
+    }
+
+    public Student getStudent() {
+        return this.student;
+    }
+}
@@ -0,0 +1,31 @@
+package it.unipi.RoomBooking.Data.ORM;
+
+import java.io.Serializable;
+
+/* Primary key of LaboratoryBooking: the ids of the laboratory and of the student. */
+public class LaboratoryBookingId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long laboratory;
+    private long student;
+
+    public LaboratoryBookingId() {
+    }
+
+    public LaboratoryBookingId(long laboratory, long student) {
+        this.laboratory = laboratory;
+        this.student = student;
+    }
+
+    public boolean equals(Object other) {
+        if (!(other instanceof LaboratoryBookingId)) {
+            return false;
+        }
+        LaboratoryBookingId id = (LaboratoryBookingId) other;
+        return this.laboratory == id.laboratory && this.student == id.student;
+    }
+
+    public int hashCode() {
+        return 31 * Long.hashCode(this.laboratory) + Long.hashCode(this.student);
+    }
+}
@@ -1,22 +1,22 @@
 package it.unipi.RoomBooking.Data.ORM;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
 import javax.persistence.Column;
 import javax.persistence.Entity;
-import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.ManyToMany;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 import it.unipi.RoomBooking.Data.Interface.Person;
-import it.unipi.RoomBooking.Data.ORM.Laboratory;
 
 @Entity
-@Table(name = "student")
+@Table(name = "student", indexes = @Index(name = "UK_STUDENT_EMAIL", columnList = "STUDENT_EMAIL", unique = true))
+@NamedQueries({
+        @NamedQuery(name = "Student.findByEmail", query = "SELECT s FROM Student s WHERE s.studentEmail = :email"),
+        @NamedQuery(name = "Student.findEmails", query = "SELECT s.studentEmail FROM Student s WHERE s.studentEmail IN :emails") })
 public class Student implements Person {
     @Id
     @Column(name = "STUDENT_ID")
@@ -32,9 +32,6 @@ public class Student implements Person {
     @Column(name = "STUDENT_EMAIL")
     private String studentEmail;
 
-    @ManyToMany(mappedBy = "students", fetch = FetchType.EAGER)
-    private Collection<Laboratory> laboratories = new ArrayList<Laboratory>();
-
     public void setName(String name) {
         this.studentName= name;
     }
@@ -63,16 +60,4 @@ public class Student implements Person {
         return this.studentEmail;
     }
 
-    public Collection<Laboratory> getLaboratories() {
-        return this.laboratories;
-    }
-
-    public void setLaboratories(Laboratory laboratory) {
-        this.laboratories.add(laboratory);
-    }
-
-    public void deleteBooking(Laboratory laboratory) {
-        this.laboratories.remove(laboratory);
-    }
-
 }
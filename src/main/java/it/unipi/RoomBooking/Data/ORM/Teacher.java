@@ -11,13 +11,24 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
 import it.unipi.RoomBooking.Data.Interface.Person;
 
 @Entity
-@Table(name="teacher")
+@Table(name="teacher", indexes = @Index(name = "UK_TEACHER_EMAIL", columnList = "TEACHER_EMAIL", unique = true))
+@NamedQueries({
+        @NamedQuery(name = "Teacher.findByEmail", query = "SELECT t FROM Teacher t WHERE t.teacherEmail = :email"),
+        @NamedQuery(name = "Teacher.findEmails", query = "SELECT t.teacherEmail FROM Teacher t WHERE t.teacherEmail IN :emails") })
+@NamedEntityGraph(name = "Teacher.bookings", attributeNodes = @NamedAttributeNode(value = "classroomBookings", subgraph = "booking"),
+        subgraphs = @NamedSubgraph(name = "booking", attributeNodes = @NamedAttributeNode("classroom")))
 public class Teacher implements Person {
     @Id
     @Column(name="TEACHER_ID")
@@ -33,7 +44,7 @@ public class Teacher implements Person {
     @Column(name = "TEACHER_EMAIL")
     private String teacherEmail;
 
-    @OneToMany(fetch = FetchType.EAGER, mappedBy = "teacher")
+    @OneToMany(fetch = FetchType.LAZY, mappedBy = "teacher")
     private Collection<ClassroomBooking> classroomBookings = new ArrayList<ClassroomBooking>();
 
     public void setName(String name){
@@ -0,0 +1,280 @@
+package it.unipi.RoomBooking.Database;
+
+import it.unipi.RoomBooking.Data.NORM.Available;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * In-memory copy of the available rooms of one type. Each room gets a position
+ * the first time it is seen: laboratories keep their free seats in an int
+ * counter, classrooms their free slots in two bits of a long (bit 0 morning,
+ * bit 1 afternoon, 32 classrooms per long). The bits of a classroom are set
+ * with compare-and-set, so that the other classrooms of the same long keep theirs.
+ *
+ * Updates share the read lock of the arrays: the write lock is only taken to
+ * grow them, so that no update lands on an array being replaced.
+ */
+public class AvailabilityIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long MORNING = 1L;
+    private static final long AFTERNOON = 2L;
+    private static final long FREE = MORNING | AFTERNOON;
+
+    private final String roomType;
+    private final Map<Long, Integer> positions = new ConcurrentHashMap<Long, Integer>();
+    private final ReentrantReadWriteLock arraysLock = new ReentrantReadWriteLock();
+
+    // Position -> room name, building and capacity; null while the room is not available.
+    private volatile AtomicReferenceArray<Available> rooms;
+    private volatile AtomicIntegerArray seats;
+    private volatile AtomicLongArray slots;
+    private volatile int size;
+
+    public AvailabilityIndex(String roomType) {
+        this.roomType = roomType;
+        this.rooms = new AtomicReferenceArray<Available>(INITIAL_CAPACITY);
+
+        if (isClassroom()) {
+            this.slots = new AtomicLongArray(INITIAL_CAPACITY / 32);
+        } else {
+            this.seats = new AtomicIntegerArray(INITIAL_CAPACITY);
+        }
+    }
+
+    private boolean isClassroom() {
+        return roomType.equals("cla");
+    }
+
+    /* Sets the room and its availability: free seats, or the free slot f, m or a. */
+    public void put(long roomId, String roomName, String buildingName, int capacity, String available) {
+        int position = position(roomId);
+        Lock lock = arraysLock.readLock();
+        lock.lock();
+
+        try {
+            rooms.set(position, new Available(roomName, buildingName, null, roomType, roomId, capacity));
+
+            if (isClassroom()) {
+                setSlots(position, decodeSlots(available));
+            } else {
+                seats.set(position, Integer.parseInt(available));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(long roomId) {
+        Integer position = positions.get(roomId);
+
+        if (position == null) {
+            return;
+        }
+
+        Lock lock = arraysLock.readLock();
+        lock.lock();
+
+        try {
+            rooms.set(position, null);
+
+            if (isClassroom()) {
+                setSlots(position, 0);
+            } else {
+                seats.set(position, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Drops every room; their positions are kept for when they come back. */
+    public void clear() {
+        Lock lock = arraysLock.writeLock();
+        lock.lock();
+
+        try {
+            int capacity = rooms.length();
+            rooms = new AtomicReferenceArray<Available>(capacity);
+
+            if (isClassroom()) {
+                slots = new AtomicLongArray(slots.length());
+            } else {
+                seats = new AtomicIntegerArray(capacity);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Laboratories with at least one free seat, or classrooms free in the
+     * requested slot. Without a requested slot only the classrooms free both in
+     * the morning and in the afternoon are listed.
+     */
+    public Collection<Available> getAvailable(String requestedSchedule) {
+        Collection<Available> availables = new ArrayList<Available>();
+        long wanted = FREE;
+
+        if (requestedSchedule != null && requestedSchedule.equals("m")) {
+            wanted = MORNING;
+        } else if (requestedSchedule != null && requestedSchedule.equals("a")) {
+            wanted = AFTERNOON;
+        }
+
+        Lock lock = arraysLock.readLock();
+        lock.lock();
+
+        try {
+            int count = size;
+
+            if (isClassroom()) {
+                for (int word = 0; word < (count + 31) >>> 5; word++) {
+                    long bits = slots.get(word);
+                    int end = Math.min(count, (word + 1) << 5);
+
+                    for (int position = word << 5; bits != 0 && position < end; position++) {
+                        if ((bits >>> shift(position) & wanted) == wanted) {
+                            addRoom(position, availables);
+                        }
+                    }
+                }
+            } else {
+                for (int position = 0; position < count; position++) {
+                    if (seats.get(position) > 0) {
+                        addRoom(position, availables);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return availables;
+    }
+
+    private void addRoom(int position, Collection<Available> availables) {
+        Available room = snapshot(position);
+
+        if (room != null) {
+            availables.add(room);
+        }
+    }
+
+    private Available snapshot(int position) {
+        Available room = rooms.get(position);
+
+        if (room == null) {
+            return null;
+        }
+
+        String available;
+        if (isClassroom()) {
+            available = encodeSlots(slots.get(position >>> 5) >>> shift(position) & FREE);
+        } else {
+            available = Integer.toString(seats.get(position));
+        }
+        return new Available(room.getRoom(), room.getBuilding(), available, roomType, room.getId(),
+                room.getCapacity());
+    }
+
+    private void setSlots(int position, long value) {
+        int shift = shift(position);
+
+        while (true) {
+            long word = slots.get(position >>> 5);
+            long updated = (word & ~(FREE << shift)) | (value << shift);
+
+            if (slots.compareAndSet(position >>> 5, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static int shift(int position) {
+        return (position & 31) << 1;
+    }
+
+    private static long decodeSlots(String available) {
+        if (available.equals("f")) {
+            return FREE;
+        }
+        return available.equals("m") ? MORNING : AFTERNOON;
+    }
+
+    /* f, m or a; null when both slots are taken. */
+    private static String encodeSlots(long bits) {
+        if (bits == FREE) {
+            return "f";
+        } else if (bits == MORNING) {
+            return "m";
+        } else if (bits == AFTERNOON) {
+            return "a";
+        }
+        return null;
+    }
+
+    /* The position of a room, assigned on first sight; the arrays grow when they are full. */
+    private int position(long roomId) {
+        Integer position = positions.get(roomId);
+
+        if (position != null) {
+            return position;
+        }
+
+        synchronized (positions) {
+            position = positions.get(roomId);
+
+            if (position == null) {
+                position = size;
+
+                if (position == rooms.length()) {
+                    grow();
+                }
+                positions.put(roomId, position);
+                size = position + 1;
+            }
+        }
+        return position;
+    }
+
+    private void grow() {
+        Lock lock = arraysLock.writeLock();
+        lock.lock();
+
+        try {
+            int capacity = rooms.length() * 2;
+            AtomicReferenceArray<Available> grownRooms = new AtomicReferenceArray<Available>(capacity);
+
+            for (int i = 0; i < rooms.length(); i++) {
+                grownRooms.set(i, rooms.get(i));
+            }
+
+            if (isClassroom()) {
+                AtomicLongArray grownSlots = new AtomicLongArray(capacity / 32);
+
+                for (int i = 0; i < slots.length(); i++) {
+                    grownSlots.set(i, slots.get(i));
+                }
+                slots = grownSlots;
+            } else {
+                AtomicIntegerArray grownSeats = new AtomicIntegerArray(capacity);
+
+                for (int i = 0; i < seats.length(); i++) {
+                    grownSeats.set(i, seats.get(i));
+                }
+                seats = grownSeats;
+            }
+            rooms = grownRooms;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
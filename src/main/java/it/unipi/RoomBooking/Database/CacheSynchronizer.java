@@ -0,0 +1,234 @@
+package it.unipi.RoomBooking.Database;
+
+import it.unipi.RoomBooking.Data.NORM.LaboratorySeats;
+import it.unipi.RoomBooking.Data.ORM.ChangeLog;
+import it.unipi.RoomBooking.Data.ORM.Classroom;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Keeps the LevelDB available store of this process in line with MySQL by
+ * replaying the change_log table, which every application instance writes.
+ *
+ * Change ids are taken at insert time, so a transaction may commit a lower id
+ * after the epoch has moved past it. The ids skipped that way are kept as gaps
+ * and looked up again on every synchronization until they show up, or until
+ * GAP_TIMEOUT_MILLIS has passed and the transaction is taken as rolled back.
+ */
+public class CacheSynchronizer {
+    private static final int BATCH_SIZE = 500;
+    private static final long GAP_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    /* Upper bound on the gaps followed at once, e.g. after a jump of the id sequence */
+    private static final int MAX_GAPS = 1000;
+    /* Changes kept below the oldest epoch, for the other instances that are catching up */
+    static final long RETAINED_CHANGES = 10000;
+    /* Changes replayed after a full load, to catch the transactions that were still open */
+    static final long LOAD_LOOKBACK = 1000;
+
+    private final HibernateDriver hibernate;
+    private final LevelDbDriver levelDb;
+    // Room type -> missing change id -> when it was first missed.
+    private final Map<String, Map<Long, Long>> gaps = new HashMap<String, Map<Long, Long>>();
+    private ScheduledExecutorService poller;
+
+    public CacheSynchronizer(HibernateDriver hibernate, LevelDbDriver levelDb) {
+        this.hibernate = hibernate;
+        this.levelDb = levelDb;
+    }
+
+    public void start(final String roomType, long periodSeconds) {
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-synchronizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            synchronize(roomType);
+            prune();
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (poller != null) {
+            poller.shutdown();
+            try {
+                poller.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Applies the changes committed inside the known gaps, then the entries
+     * newer than the epoch, BATCH_SIZE at a time.
+     */
+    public synchronized int synchronize(String roomType) {
+        int applied = 0;
+
+        try {
+            long epoch = levelDb.getEpoch(roomType);
+
+            // Nothing to reconcile until the rooms have been loaded once.
+            if (epoch < 0) {
+                return 0;
+            }
+
+            Map<Long, Long> missing = getGaps(roomType);
+            long now = System.currentTimeMillis();
+
+            if (!missing.isEmpty()) {
+                Collection<ChangeLog> late = hibernate.getChanges(missing.keySet());
+
+                if (late == null || !apply(roomType, late)) {
+                    return 0;
+                }
+                for (ChangeLog change : late) {
+                    missing.remove(change.getId());
+                }
+                missing.values().removeIf(missedAt -> now - missedAt > GAP_TIMEOUT_MILLIS);
+                levelDb.setEpoch(roomType, epoch, missing.keySet());
+                applied += late.size();
+            }
+
+            while (true) {
+                Collection<ChangeLog> changes = hibernate.getChanges(epoch, BATCH_SIZE);
+
+                if (changes == null || changes.isEmpty()) {
+                    break;
+                }
+
+                if (!apply(roomType, changes)) {
+                    break;
+                }
+                for (ChangeLog change : changes) {
+                    for (long id = epoch + 1; id < change.getId() && missing.size() < MAX_GAPS; id++) {
+                        missing.put(id, now);
+                    }
+                    epoch = change.getId();
+                }
+                levelDb.setEpoch(roomType, epoch, missing.keySet());
+                applied += changes.size();
+
+                if (changes.size() < BATCH_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+
+        return applied;
+    }
+
+    /*
+     * Deletes the change log entries no loaded room type of this store still
+     * needs, keeping RETAINED_CHANGES of them for the other instances.
+     */
+    public synchronized int prune() {
+        try {
+            long oldest = Long.MAX_VALUE;
+
+            for (String roomType : new String[] { "cla", "lab" }) {
+                long epoch = levelDb.getEpoch(roomType);
+
+                if (epoch >= 0) {
+                    oldest = Math.min(oldest, epoch + 1);
+                    for (long gap : getGaps(roomType).keySet()) {
+                        oldest = Math.min(oldest, gap);
+                    }
+                }
+            }
+
+            if (oldest != Long.MAX_VALUE && oldest - RETAINED_CHANGES > 0) {
+                return hibernate.pruneChanges(oldest - RETAINED_CHANGES);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return 0;
+    }
+
+    private Map<Long, Long> getGaps(String roomType) throws IOException {
+        Map<Long, Long> missing = gaps.get(roomType);
+
+        if (missing == null) {
+            // Gaps stored by an earlier session get a fresh timeout.
+            missing = new LinkedHashMap<Long, Long>();
+            for (long id : levelDb.getGaps(roomType)) {
+                missing.put(id, System.currentTimeMillis());
+            }
+            gaps.put(roomType, missing);
+        }
+        return missing;
+    }
+
+    private boolean apply(String roomType, Collection<ChangeLog> changes) throws IOException {
+        Collection<Long> changedRooms = new LinkedHashSet<Long>();
+
+        for (ChangeLog change : changes) {
+            if (change.getRoomType().equals(roomType)) {
+                changedRooms.add(change.getRoomId());
+            }
+        }
+        return changedRooms.isEmpty() || refresh(roomType, changedRooms);
+    }
+
+    private boolean refresh(String roomType, Collection<Long> roomIds) throws IOException {
+        Collection<Long> removed = new LinkedHashSet<Long>(roomIds);
+
+        if (roomType.equals("cla")) {
+            Collection<Classroom> classrooms = hibernate.getClassrooms(roomIds);
+
+            if (classrooms == null) {
+                return false;
+            }
+
+            for (Classroom cla : classrooms) {
+                if (cla.getAvailable()) {
+                    levelDb.putAvailable("cla", cla.getId(), cla.getName(), cla.getBuilding(), cla.getCapacity(),
+                            getClassroomAvailability(cla));
+                    removed.remove(cla.getId());
+                }
+            }
+        } else {
+            // Only available laboratories are returned.
+            Collection<LaboratorySeats> laboratories = hibernate.getLaboratorySeats(roomIds);
+
+            if (laboratories == null) {
+                return false;
+            }
+
+            for (LaboratorySeats lab : laboratories) {
+                levelDb.putAvailable("lab", lab.getId(), lab.getName(), lab.getBuilding(), lab.getCapacity(),
+                        lab.getAvailable());
+                removed.remove(lab.getId());
+            }
+        }
+
+        // Rooms that are no longer available, or no longer exist, leave the store.
+        for (long roomId : removed) {
+            levelDb.deleteFromAvailable(roomType, roomId);
+        }
+        return true;
+    }
+
+    static String getClassroomAvailability(Classroom cla) {
+        if (cla.getBooking().size() != 0) {
+            if (cla.getBooking().iterator().next().getSchedule().equals("a")) {
+                return "m";
+            } else {
+                return "a";
+            }
+        }
+        return "f";
+    }
+}
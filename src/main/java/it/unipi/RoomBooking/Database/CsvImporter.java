@@ -0,0 +1,158 @@
+package it.unipi.RoomBooking.Database;
+
+import it.unipi.RoomBooking.Data.NORM.Available;
+import it.unipi.RoomBooking.Data.NORM.BuildingNORM;
+import it.unipi.RoomBooking.Data.NORM.ImportResult;
+import it.unipi.RoomBooking.Data.NORM.User;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Loads students, teachers, buildings or rooms from a CSV file. Rows are sent to
+ * MySQL CHUNK_SIZE at a time, each chunk in its own transaction, so a bad row
+ * only rolls back its chunk and memory does not grow with the file.
+ *
+ * One record per line, lines starting with # are ignored:
+ *   students, teachers: name,lastname,email
+ *   buildings:          name,address
+ *   rooms:              cla|lab,name,capacity,building name
+ */
+public class CsvImporter {
+    private static final int CHUNK_SIZE = 1000;
+
+    private final HibernateDriver hibernate;
+
+    public CsvImporter(HibernateDriver hibernate) {
+        this.hibernate = hibernate;
+    }
+
+    /* Type is S (students), T (teachers), B (buildings) or R (rooms). */
+    public ImportResult importFile(String type, String path, ImportProgress progress) throws IOException {
+        ImportResult result = new ImportResult();
+        List<User> users = new ArrayList<User>();
+        List<BuildingNORM> buildings = new ArrayList<BuildingNORM>();
+        List<Available> classrooms = new ArrayList<Available>();
+        List<Available> laboratories = new ArrayList<Available>();
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                List<String> fields = split(line);
+                if (type.equals("S") || type.equals("T")) {
+                    String domain = type.equals("T") ? "@unipi.it" : "@studenti.unipi.it";
+                    if (fields.size() != 3 || !fields.get(2).endsWith(domain)) {
+                        result.addMalformed();
+                        continue;
+                    }
+                    users.add(new User(0, fields.get(0), fields.get(1), fields.get(2), type));
+                    if (users.size() == CHUNK_SIZE) {
+                        result.add(users.size(), hibernate.insertUsers(type, users));
+                        users.clear();
+                        progress.update(result);
+                    }
+                } else if (type.equals("B")) {
+                    if (fields.size() != 2 || fields.get(0).isEmpty()) {
+                        result.addMalformed();
+                        continue;
+                    }
+                    BuildingNORM building = new BuildingNORM();
+                    building.setName(fields.get(0));
+                    building.setAddress(fields.get(1));
+                    buildings.add(building);
+                    if (buildings.size() == CHUNK_SIZE) {
+                        result.add(buildings.size(), hibernate.insertBuildings(buildings));
+                        buildings.clear();
+                        progress.update(result);
+                    }
+                } else {
+                    Available room = parseRoom(fields);
+                    if (room == null) {
+                        result.addMalformed();
+                        continue;
+                    }
+                    List<Available> rooms = room.getType().equals("cla") ? classrooms : laboratories;
+                    rooms.add(room);
+                    if (rooms.size() == CHUNK_SIZE) {
+                        result.add(rooms.size(), hibernate.insertRooms(room.getType(), rooms));
+                        rooms.clear();
+                        progress.update(result);
+                    }
+                }
+            }
+        }
+
+        // The last, partial chunks.
+        if (!users.isEmpty()) {
+            result.add(users.size(), hibernate.insertUsers(type, users));
+        }
+        if (!buildings.isEmpty()) {
+            result.add(buildings.size(), hibernate.insertBuildings(buildings));
+        }
+        if (!classrooms.isEmpty()) {
+            result.add(classrooms.size(), hibernate.insertRooms("cla", classrooms));
+        }
+        if (!laboratories.isEmpty()) {
+            result.add(laboratories.size(), hibernate.insertRooms("lab", laboratories));
+        }
+        progress.update(result);
+
+        return result;
+    }
+
+    private static Available parseRoom(List<String> fields) {
+        if (fields.size() != 4 || (!fields.get(0).equals("cla") && !fields.get(0).equals("lab"))) {
+            return null;
+        }
+        try {
+            int capacity = Integer.parseInt(fields.get(2));
+            if (capacity <= 0) {
+                return null;
+            }
+            return new Available(fields.get(1), fields.get(3), null, fields.get(0), 0, capacity);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /* Splits a CSV line; a field in double quotes may contain commas, and "" stands for a quote. */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+
+        return fields;
+    }
+}
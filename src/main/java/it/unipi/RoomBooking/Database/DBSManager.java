@@ -2,10 +2,10 @@ package it.unipi.RoomBooking.Database;
 
 import it.unipi.RoomBooking.Data.NORM.*;
 import it.unipi.RoomBooking.Data.ORM.Building;
-import it.unipi.RoomBooking.Data.ORM.Classroom;
 import it.unipi.RoomBooking.Data.ORM.ClassroomBooking;
 import it.unipi.RoomBooking.Data.ORM.Laboratory;
 
+import it.unipi.RoomBooking.Exceptions.RoomNotAvailableException;
 import it.unipi.RoomBooking.Exceptions.UserNotExistException;
 
 import it.unipi.RoomBooking.Data.NORM.BuildingNORM;
@@ -13,60 +13,119 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.stat.Statistics;
 
 public class DBSManager implements Manager {
     private HibernateDriver hibernate;
     private LevelDbDriver levelDb;
+    private CacheSynchronizer synchronizer;
+
+    private static final Logger logger = Logger.getLogger(DBSManager.class.getName());
+
+    static {
+        // HibernateDriver.start() raises the root logger to SEVERE; the load timings are still reported.
+        logger.setLevel(Level.INFO);
+    }
+
+    /* Seconds between two polls of the MySQL change log, 0 disables polling */
+    private static long syncPeriod = 30;
 
     public void start() {
         hibernate = new HibernateDriver();
         levelDb = new LevelDbDriver();
         hibernate.start();
         levelDb.start();
+        synchronizer = new CacheSynchronizer(hibernate, levelDb);
     }
 
     public void exit() {
+        // start() may have failed before the synchronizer was created.
+        if (synchronizer != null) {
+            synchronizer.stop();
+        }
+        logStatistics();
         levelDb.exit();
         hibernate.exit();
     }
 
     public void initializeAvailable(User user) {
         try {
-            if (user.getRole().equals("T")) {
-                Collection<Classroom> classrooms = hibernate.getAvailableClassrooms();
+            String roomType = user.getRole().equals("T") ? "cla" : "lab";
 
-                for (Classroom cla : classrooms) {
-                    String available;
+            long epoch = levelDb.getEpoch(roomType);
 
-                    if (cla.getBooking().size() != 0) {
-                        if (cla.getBooking().iterator().next().getSchedule().equals("a")) {
-                            available = "m";
-                        } else {
-                            available = "a";
-                        }
-                    } else {
-                        available = "f";
-                    }
-
-                    levelDb.putAvailable("cla", cla.getId(), cla.getName(), cla.getBuilding(), cla.getCapacity(),
-                            available);
-                }
-            } else if (user.getRole().equals("S")) {
-                Collection<Laboratory> laboratories = hibernate.getAvailableLaboratories(user.getId());
+            // Reload when the store was never loaded, or when the changes it misses have been pruned.
+            if (epoch < 0 || hibernate.getFirstChange() > epoch + 1) {
+                // Read before loading, and step back over the transactions that may still commit a
+                // lower id, so that what they change during the load is replayed afterwards.
+                long lastChange = hibernate.getLastChange();
+                loadAvailable(user);
+                levelDb.setEpoch(roomType, Math.max(0, lastChange - CacheSynchronizer.LOAD_LOOKBACK));
+            }
 
-                for (Laboratory lab : laboratories) {
-                    String available = Integer.toString(lab.getCapacity() - lab.getBookingNumber());
-                    levelDb.putAvailable("lab", lab.getId(), lab.getName(), lab.getBuilding(), lab.getCapacity(),
-                            available);
-                }
+            // Apply what changed since the store was last synchronized, then keep following the change log.
+            synchronizer.synchronize(roomType);
+            if (syncPeriod > 0) {
+                synchronizer.start(roomType, syncPeriod);
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
     }
 
+    private void logStatistics() {
+        PoolMetrics poolMetrics = hibernate.getPoolMetrics();
+        if (poolMetrics != null) {
+            logger.info("Connection pool: " + poolMetrics);
+        }
+
+        Statistics statistics = hibernate.getStatistics();
+
+        if (statistics == null || !statistics.isStatisticsEnabled()) {
+            return;
+        }
+        logger.info(String.format(
+                "Query plans: %d hits, %d misses. Statements: %d prepared. Queries: %d run, slowest %d ms."
+                        + " Second-level cache: %d hits, %d misses. Query cache: %d hits, %d misses.",
+                statistics.getQueryPlanCacheHitCount(), statistics.getQueryPlanCacheMissCount(),
+                statistics.getPrepareStatementCount(), statistics.getQueryExecutionCount(),
+                statistics.getQueryExecutionMaxTime(), statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(), statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount()));
+    }
+
+    private void loadAvailable(User user) throws IOException {
+        long begin = System.nanoTime();
+        int loaded = 0;
+
+        // Rooms are streamed from MySQL straight into the loader, without materializing the catalog.
+        if (user.getRole().equals("T")) {
+            try (LevelDbDriver.AvailableLoader loader = levelDb.loadAvailable("cla")) {
+                hibernate.scrollAvailableClassrooms(cla -> loader.add(cla.getId(), cla.getName(),
+                        cla.getBuilding(), cla.getCapacity(), CacheSynchronizer.getClassroomAvailability(cla)));
+                loaded = loader.getCount();
+            }
+        } else if (user.getRole().equals("S")) {
+            try (LevelDbDriver.AvailableLoader loader = levelDb.loadAvailable("lab")) {
+                hibernate.scrollAvailableLaboratories(lab -> loader.add(lab.getId(), lab.getName(),
+                        lab.getBuilding(), lab.getCapacity(), lab.getAvailable()));
+                loaded = loader.getCount();
+            }
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        logger.info(String.format("Loaded %d rooms in %.3f s (%.0f rooms/s)", loaded, seconds,
+                seconds > 0 ? loaded / seconds : 0));
+    }
+
     public void initializeBooked(User user) {
         try {
+            // The bookings store may still hold this user's bookings from a previous session.
+            levelDb.clearBooked(user.getId(), user.getRole().equals("T") ? "cla" : "lab");
+
             if (user.getRole().equals("T")) {
                 Collection<ClassroomBooking> bookings = hibernate.getBookedClassrooms(user.getId());
 
@@ -106,12 +165,12 @@ public class DBSManager implements Manager {
         return user;
     }
 
-    public Collection<Available> getAvailable(String requestedSchedule, String role) {
+    public Collection<Available> getAvailable(String requestedSchedule, User user) {
         try {
-            Collection<Available> available = levelDb.getAvailable(requestedSchedule, role);
+            Collection<Available> available = levelDb.getAvailable(requestedSchedule, user.getRole());
 
-            if (role.equals("S")) {
-                Collection<Booked> bookedLabs = getBooked(role);
+            if (user.getRole().equals("S")) {
+                Collection<Booked> bookedLabs = getBooked(user);
 
                 Iterator<Booked> bookedIterator = bookedLabs.iterator();
 
@@ -133,9 +192,9 @@ public class DBSManager implements Manager {
         return null;
     }
 
-    public Collection<Booked> getBooked(String role) {
+    public Collection<Booked> getBooked(User user) {
         try {
-            Collection<Booked> bookings = levelDb.getBooked(role);
+            Collection<Booked> bookings = levelDb.getBooked(user.getId(), user.getRole());
             return bookings;
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -143,73 +202,43 @@ public class DBSManager implements Manager {
         return null;
     }
 
-    public void setBooking(User user, Available roomToBook, String requestedSchedule) {
+    public void setBooking(User user, Available roomToBook, String requestedSchedule)
+            throws RoomNotAvailableException {
         try {
+            // MySQL decides whether the room is still free, the local stores follow once it has committed.
             if (user.getRole().equals("T")) {
-                hibernate.setClassroomBooking(user.getId(), roomToBook.getId(), requestedSchedule);
-                ClassroomBooking newBook = hibernate.getClassroomBooking(roomToBook.getId(), user.getId(),
-                        requestedSchedule);
-                levelDb.putBooked(user.getId(), roomToBook.getType(), newBook.getId(), roomToBook.getRoom(),
+                long bookingId = hibernate.setClassroomBooking(user.getId(), roomToBook.getId(), requestedSchedule);
+                levelDb.putBooked(user.getId(), roomToBook.getType(), bookingId, roomToBook.getRoom(),
                         requestedSchedule);
             } else {
                 hibernate.setLaboratoryBooking(user.getId(), roomToBook.getId());
                 levelDb.putBooked(user.getId(), roomToBook.getType(), roomToBook.getId(), roomToBook.getRoom(), null);
             }
-
-            if (checkAvailability(roomToBook)) {
-                levelDb.deleteFromAvailable(roomToBook.getType(), roomToBook.getId());
-                hibernate.updateAvailability(roomToBook.getType(), roomToBook.getId(), false);
-            } else {
-                if (user.getRole().equals("T")) {
-                    levelDb.updateClassroomAvailability(roomToBook.getId(), requestedSchedule);
-                } else {
-                    levelDb.decreaseLaboratoryAvailability(roomToBook.getId());
-                }
-            }
         } catch (IOException ioe) {
             ioe.printStackTrace();
+        } finally {
+            // Other users may have booked the room too: read its availability back from the change log.
+            synchronizer.synchronize(roomToBook.getType());
         }
     }
 
-    public boolean checkAvailability(Available roomToBook) {
-        // True only if the room will become unavailable after the booking.
-        if (roomToBook.getType().equals("cla")) {
-            if (!roomToBook.getAvailable().equals("f")) {
-                return true;
-            }
-        } else {
-            if (Integer.parseInt(roomToBook.getAvailable()) == 1) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     public void deleteBooking(User user, Booked booked) {
         try {
+            // One MySQL transaction, which returns the room as it is after the cancellation.
             if (user.getRole().equals("T")) {
-                if (!hibernate.getAvailability(booked.getType(), booked.getId())) {
-                    Available av = new Available(hibernate.getClassroom(booked.getId()));
-                    hibernate.updateAvailability(av.getType(), av.getId(), true);
-                    hibernate.deleteClassroomBooking(booked.getId());
-                    levelDb.putAvailable(booked.getType(), av.getId(), booked.getRoomName(), av.getBuilding(),
-                            av.getCapacity(), booked.getSchedule());
-                } else {
-                    levelDb.setClassroomAvailability(hibernate.getClassroom(booked.getId()).getId());
-                    hibernate.deleteClassroomBooking(booked.getId());
+                Available classroom = hibernate.cancelClassroomBooking(booked.getId());
+                if (classroom == null) {
+                    return;
                 }
+                levelDb.putAvailable(booked.getType(), classroom.getId(), classroom.getRoom(),
+                        classroom.getBuilding(), classroom.getCapacity(), classroom.getAvailable());
             } else {
-                if (!hibernate.getAvailability(booked.getType(), booked.getId())) {
-                    Available av = new Available(hibernate.getLaboratory(booked.getId()));
-                    av.setType("lab");
-                    hibernate.updateAvailability(av.getType(), av.getId(), true);
-                    hibernate.deleteLaboratoryBooking(user.getId(), booked.getId());
-                    levelDb.putAvailable(booked.getType(), booked.getId(), booked.getRoomName(), av.getBuilding(),
-                            av.getCapacity(), "1");
-                } else {
-                    hibernate.deleteLaboratoryBooking(user.getId(), booked.getId());
-                    levelDb.increaseLaboratoryAvailability(booked.getId());
+                LaboratorySeats laboratory = hibernate.cancelLaboratoryBooking(user.getId(), booked.getId());
+                if (laboratory == null) {
+                    return;
                 }
+                levelDb.putAvailable(booked.getType(), laboratory.getId(), laboratory.getName(),
+                        laboratory.getBuilding(), laboratory.getCapacity(), laboratory.getAvailable());
             }
             levelDb.deleteBooked(booked.getType(), booked.getId(), user.getId());
         } catch (IOException ioe) {
@@ -217,9 +246,26 @@ public class DBSManager implements Manager {
         }
     }
 
-    public void updateBooking(User user, Available roomToBook, String requestedSchedule, Booked booked) {
-        deleteBooking(user, booked);
-        setBooking(user, roomToBook, requestedSchedule);
+    public void updateBooking(User user, Available roomToBook, String requestedSchedule, Booked booked)
+            throws RoomNotAvailableException {
+        try {
+            // One MySQL transaction: if the new room is taken, the original booking is kept.
+            if (user.getRole().equals("T")) {
+                hibernate.moveClassroomBooking(booked.getId(), roomToBook.getId(), requestedSchedule);
+                // The booking keeps its id, only the room and the schedule change.
+                levelDb.putBooked(user.getId(), booked.getType(), booked.getId(), roomToBook.getRoom(),
+                        requestedSchedule);
+            } else {
+                hibernate.moveLaboratoryBooking(user.getId(), booked.getId(), roomToBook.getId());
+                levelDb.moveBooked(user.getId(), booked.getType(), booked.getId(), roomToBook.getId(),
+                        roomToBook.getRoom(), null);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } finally {
+            // Both rooms are in the change log: the old one is free again, the new one may be full.
+            synchronizer.synchronize(roomToBook.getType());
+        }
     }
 
     // Admin methods
@@ -260,6 +306,16 @@ public class DBSManager implements Manager {
         }
     }
 
+    /* Type is S (students), T (teachers), B (buildings) or R (rooms), see CsvImporter for the format. */
+    public ImportResult importCsv(String type, String path, ImportProgress progress) {
+        try {
+            return new CsvImporter(hibernate).importFile(type, path, progress);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return null;
+    }
+
     public long getBuildingId(String name) {
         try {
             return hibernate.getBuildingId(name);
@@ -1,61 +1,131 @@
 package it.unipi.RoomBooking.Database;
 
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.CacheStoreMode;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Persistence;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import javax.persistence.TypedQuery;
 
 
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.query.Query;
+import org.hibernate.stat.Statistics;
+
+import com.zaxxer.hikari.HikariDataSource;
+
 import it.unipi.RoomBooking.Data.Interface.Person;
+import it.unipi.RoomBooking.Data.NORM.Available;
+import it.unipi.RoomBooking.Data.NORM.BuildingNORM;
+import it.unipi.RoomBooking.Data.NORM.LaboratorySeats;
+import it.unipi.RoomBooking.Data.NORM.User;
 import it.unipi.RoomBooking.Data.ORM.*;
+import it.unipi.RoomBooking.Exceptions.RoomNotAvailableException;
 import it.unipi.RoomBooking.Exceptions.UserNotExistException;
 
 public class HibernateDriver {
+    /* Rows fetched per round trip and rows kept in the persistence context while streaming */
+    private static final int FETCH_SIZE = 500;
+    private static final int CLEAR_EVERY = 500;
+    /* Collections are lazy: each use case names the entity graph it needs */
+    private static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
+    /* Booking attempts on a version conflict, and the upper bound of the first back-off */
+    private static final int MAX_ATTEMPTS = 10;
+    private static final int RETRY_DELAY_MILLIS = 5;
+    /* Morning and afternoon */
+    private static final int CLASSROOM_SLOTS = 2;
+
        private static EntityManagerFactory factory;
-    private EntityManager entityManager;
+    private static PoolMetrics poolMetrics;
+    // Held here: the level of a logger nobody references may be lost when it is collected.
+    private static final Logger poolLogger = Logger.getLogger("com.zaxxer.hikari");
 
     public void start() {
+        start(new HashMap<String, Object>());
+    }
+
+    public void start(Map<String, Object> properties) {
         /* Set Hibernate log level */
         LogManager logManager = LogManager.getLogManager();
         Logger logger = logManager.getLogger("");
         logger.setLevel(Level.SEVERE);
-
-        factory = Persistence.createEntityManagerFactory("roombooking");
+        // Connection leak and pool exhaustion warnings are still reported.
+        poolLogger.setLevel(Level.WARNING);
+
+        // Properties given here override persistence.xml, e.g. to run against an embedded database.
+        factory = Persistence.createEntityManagerFactory("roombooking", properties);
+
+        ConnectionProvider provider = factory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        poolMetrics = null;
+        if (provider.isUnwrappableAs(HikariDataSource.class)) {
+            poolMetrics = new PoolMetrics();
+            provider.unwrap(HikariDataSource.class).setMetricsTrackerFactory(poolMetrics);
+        }
     }
 
     public void exit() {
         factory.close();
     }
 
+    /* Pool counters, or null when the persistence unit does not use the connection pool. */
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    /*
+     * Query plan cache and statement counters, plus the cache hit and miss counts.
+     * They stay at zero unless hibernate.generate_statistics is enabled. Null when
+     * the factory did not start.
+     */
+    public Statistics getStatistics() {
+        if (factory == null || !factory.isOpen()) {
+            return null;
+        }
+        return factory.unwrap(SessionFactory.class).getStatistics();
+    }
+
     public Person authenticate(String email, boolean isTeacher) throws UserNotExistException {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
 
             if (isTeacher) {
                 // Retreive teacher information.
-                CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-                CriteriaQuery<Teacher> criteriaQuery = criteriaBuilder.createQuery(Teacher.class);
-                Root<Teacher> root = criteriaQuery.from(Teacher.class);
-                criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("teacherEmail"), email));
-                Teacher person = entityManager.createQuery(criteriaQuery).getSingleResult();
+                Teacher person = entityManager.createNamedQuery("Teacher.findByEmail", Teacher.class)
+                        .setParameter("email", email).getSingleResult();
                 return person;
             } else {
                 // Retreive student information.
-                CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-                CriteriaQuery<Student> criteriaQuery = criteriaBuilder.createQuery(Student.class);
-                Root<Student> root = criteriaQuery.from(Student.class);
-                criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("studentEmail"), email));
-                Student person = entityManager.createQuery(criteriaQuery).getSingleResult();
+                Student person = entityManager.createNamedQuery("Student.findByEmail", Student.class)
+                        .setParameter("email", email).getSingleResult();
                 return person;
             }
 
@@ -70,46 +140,67 @@ public class HibernateDriver {
         return null;
     }
 
-    public Collection<Classroom> getAvailableClassrooms() {
+    public void scrollAvailableClassrooms(RoomHandler<Classroom> handler) throws IOException {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Classroom> criteriaQuery = criteriaBuilder.createQuery(Classroom.class);
-            Root<Classroom> root = criteriaQuery.from(Classroom.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("classroomAvailable"), true));
-            Collection<Classroom> available = entityManager.createQuery(criteriaQuery).getResultList();
-            return available;
+            scroll(entityManager, entityManager.createNamedQuery("Classroom.findAvailable", Classroom.class)
+                    .setHint(FETCH_GRAPH, entityManager.getEntityGraph("Classroom.bookings")), handler);
+        } catch (IOException ioe) {
+            throw ioe;
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
-        return null;
     }
 
-    public Collection<Laboratory> getAvailableLaboratories(long studentId) {
+    public void scrollAvailableLaboratories(RoomHandler<LaboratorySeats> handler) throws IOException {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-           
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Laboratory> criteriaQuery = criteriaBuilder.createQuery(Laboratory.class);
-            Root<Laboratory> root = criteriaQuery.from(Laboratory.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("laboratoryAvailable"), true));
-            Collection<Laboratory> available = entityManager.createQuery(criteriaQuery).getResultList();
-            return available;
+            scroll(entityManager, entityManager.createNamedQuery("Laboratory.findAvailableSeats", LaboratorySeats.class),
+                    handler);
+        } catch (IOException ioe) {
+            throw ioe;
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
-        return null;
+    }
+
+    /*
+     * Forward-only, read-only scroll: rows are fetched FETCH_SIZE at a time and the
+     * persistence context is cleared every CLEAR_EVERY rows, so memory does not
+     * grow with the number of rooms.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void scroll(EntityManager entityManager, TypedQuery<T> typedQuery, RoomHandler<T> handler)
+            throws IOException {
+        Query<T> query = typedQuery.unwrap(Query.class);
+        ScrollableResults results = query.setFetchSize(FETCH_SIZE).setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY);
+
+        try {
+            int rows = 0;
+            while (results.next()) {
+                handler.handle((T) results.get(0));
+
+                if (++rows % CLEAR_EVERY == 0) {
+                    entityManager.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
     }
 
     public Collection<ClassroomBooking> getBookedClassrooms(long teacherId) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();         
             entityManager.getTransaction().begin();
-            Teacher teacher = entityManager.find(Teacher.class, teacherId);
+            Teacher teacher = entityManager.find(Teacher.class, teacherId, fetchGraph(entityManager, "Teacher.bookings"));
             entityManager.getTransaction().commit();
             return teacher.getBooked();
         } catch (Exception ex) {
@@ -121,12 +212,16 @@ public class HibernateDriver {
     }
 
     public Collection<Laboratory> getBookedLaboratories(long studentId) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            Student student = entityManager.find(Student.class, studentId);
-            entityManager.getTransaction().commit();
-            return student.getLaboratories();
+            Collection<Laboratory> laboratories = new ArrayList<Laboratory>();
+            for (LaboratoryBooking booking : entityManager
+                    .createNamedQuery("LaboratoryBooking.findByStudent", LaboratoryBooking.class)
+                    .setParameter("studentId", studentId).getResultList()) {
+                laboratories.add(booking.getLaboratory());
+            }
+            return laboratories;
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
@@ -135,156 +230,376 @@ public class HibernateDriver {
         return null;
     }
 
-    public void setClassroomBooking(long teacherId, long roomId, String schedule) {
-        try {
-            entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-
-            Teacher teacher = entityManager.find(Teacher.class, teacherId);
+    /*
+     * Inserts the booking and, when it takes the last free slot, marks the classroom
+     * unavailable. The slot is checked against the database, not the local store.
+     */
+    public long setClassroomBooking(long teacherId, long roomId, String schedule) throws RoomNotAvailableException {
+        ClassroomBooking booking = transaction(entityManager -> {
             Classroom classroom = entityManager.find(Classroom.class, roomId);
-            ClassroomBooking booking = new ClassroomBooking();
+            checkSlot(classroom, schedule, null);
+
+            // Only the key of the teacher is needed.
+            ClassroomBooking newBooking = new ClassroomBooking();
+            newBooking.setRoom(classroom);
+            newBooking.setSchedule(schedule);
+            newBooking.setPerson(entityManager.getReference(Teacher.class, teacherId));
+            classroom.setBooking(newBooking);
+            entityManager.persist(newBooking);
+
+            takeSlot(entityManager, classroom);
+            return newBooking;
+        });
+
+        // The identity is assigned on persist, no need to read the booking back.
+        return booking.getId();
+    }
+
+    /*
+     * Moves a classroom booking to another room and/or schedule in one transaction.
+     * The booking row is updated in place: if the new slot is taken, the teacher
+     * keeps the original booking.
+     */
+    public void moveClassroomBooking(long bookingId, long roomId, String schedule) throws RoomNotAvailableException {
+        transaction(entityManager -> {
+            ClassroomBooking booking = entityManager.find(ClassroomBooking.class, bookingId);
+            if (booking == null) {
+                throw new RoomNotAvailableException("\nThe booking no longer exists.");
+            }
+
+            Classroom from = (Classroom) booking.getClassroom();
+            Classroom to = entityManager.find(Classroom.class, roomId);
+            checkSlot(to, schedule, booking);
 
-            booking.setRoom(classroom);
             booking.setSchedule(schedule);
-            booking.setPerson(teacher);
-            classroom.setBooking(booking);
-            teacher.setBooking(booking);
+            if (to != from) {
+                from.deleteBooking(booking);
+                from.setAvailable(true);
+                to.setBooking(booking);
+                booking.setRoom(to);
+                entityManager.lock(from, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+                logChange(entityManager, "cla", from.getId());
+            }
 
-            entityManager.persist(booking);
-            entityManager.merge(classroom);
-            entityManager.merge(teacher);
+            takeSlot(entityManager, to);
+            return Boolean.TRUE;
+        });
+    }
 
-            entityManager.getTransaction().commit();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        } finally {
-            entityManager.close();
+    /* The booking being moved, if any, does not count against its own room. */
+    private static void checkSlot(Classroom classroom, String schedule, ClassroomBooking moving)
+            throws RoomNotAvailableException {
+        if (classroom == null || (!classroom.getAvailable() && (moving == null || moving.getClassroom() != classroom))) {
+            throw new RoomNotAvailableException("\nThe room is no longer available.");
+        }
+        for (ClassroomBooking iteration : classroom.getBooking()) {
+            if (iteration != moving && iteration.getSchedule().equals(schedule)) {
+                throw new RoomNotAvailableException("\nThe room has just been booked for this schedule.");
+            }
         }
     }
 
-    public void setLaboratoryBooking(long studentId, long roomId) {
-        try {
-            entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
+    private void takeSlot(EntityManager entityManager, Classroom classroom) {
+        if (classroom.getBooking().size() >= CLASSROOM_SLOTS) {
+            classroom.setAvailable(false);
+        }
+        // A concurrent booking of the same classroom now fails its version check.
+        entityManager.lock(classroom, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+        logChange(entityManager, "cla", classroom.getId());
+    }
 
-            Laboratory laboratory = entityManager.find(Laboratory.class, roomId);
-            Student student = entityManager.find(Student.class, studentId);
+    /*
+     * Books a seat and, when it is the last one, marks the laboratory unavailable.
+     * The seats are counted in the database, not in the local store.
+     */
+    public void setLaboratoryBooking(long studentId, long roomId) throws RoomNotAvailableException {
+        transaction(entityManager -> {
+            takeSeat(entityManager, studentId, roomId);
+            return Boolean.TRUE;
+        });
+    }
 
-            laboratory.setStudent(student);
-            student.setLaboratories(laboratory);
-            entityManager.merge(laboratory);
-            entityManager.merge(student);
+    /*
+     * Moves a seat to another laboratory in one transaction. The key of the booking
+     * changes, so its row is replaced: if the new laboratory is full, the student
+     * keeps the original seat.
+     */
+    public void moveLaboratoryBooking(long studentId, long fromId, long toId) throws RoomNotAvailableException {
+        transaction(entityManager -> {
+            LaboratoryBooking booking = entityManager.find(LaboratoryBooking.class,
+                    new LaboratoryBookingId(fromId, studentId));
+            if (booking == null) {
+                throw new RoomNotAvailableException("\nThe booking no longer exists.");
+            }
+            if (fromId == toId) {
+                return Boolean.TRUE;
+            }
 
-            entityManager.getTransaction().commit();
+            takeSeat(entityManager, studentId, toId);
+
+            Laboratory from = booking.getLaboratory();
+            entityManager.remove(booking);
+            from.setAvailable(true);
+            entityManager.lock(from, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            logChange(entityManager, "lab", fromId);
+            return Boolean.TRUE;
+        });
+    }
+
+    private void takeSeat(EntityManager entityManager, long studentId, long roomId) throws RoomNotAvailableException {
+        Laboratory laboratory = entityManager.find(Laboratory.class, roomId);
+        if (laboratory == null || !laboratory.getAvailable()) {
+            throw new RoomNotAvailableException("\nThe laboratory is no longer available.");
+        }
+
+        // The seats are counted, not loaded.
+        long seats = entityManager.createNamedQuery("LaboratoryBooking.countByLaboratory", Long.class)
+                .setParameter("laboratoryId", roomId).getSingleResult();
+        if (seats >= laboratory.getCapacity()) {
+            throw new RoomNotAvailableException("\nThe laboratory is no longer available.");
+        }
+        if (entityManager.find(LaboratoryBooking.class, new LaboratoryBookingId(roomId, studentId)) != null) {
+            throw new RoomNotAvailableException("\nYou already booked this laboratory.");
+        }
+
+        // Only the key of the student is needed.
+        entityManager.persist(new LaboratoryBooking(laboratory, entityManager.getReference(Student.class, studentId)));
+        if (seats + 1 >= laboratory.getCapacity()) {
+            laboratory.setAvailable(false);
+        }
+        // A concurrent booking of the same laboratory now fails its version check.
+        entityManager.lock(laboratory, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+        logChange(entityManager, "lab", roomId);
+    }
+
+    /*
+     * Cancels a classroom booking in one transaction: the booking is deleted and the
+     * room freed with bulk statements. Returns the room with its free slot as it is
+     * after the cancellation, or null.
+     */
+    public Available cancelClassroomBooking(long bookingId) {
+        Available classroom = null;
+        try {
+            classroom = transaction(entityManager -> {
+                List<Long> rooms = entityManager.createNamedQuery("ClassroomBooking.findClassroomId", Long.class)
+                        .setParameter("bookingId", bookingId).getResultList();
+                if (rooms.isEmpty()) {
+                    return null;
+                }
+
+                entityManager.createNamedQuery("ClassroomBooking.delete").setParameter("bookingId", bookingId)
+                        .executeUpdate();
+                freeRoom(entityManager, "cla", rooms.get(0));
+                return entityManager.createNamedQuery("Classroom.findFreeSlot", Available.class)
+                        .setParameter("classroomId", rooms.get(0)).getSingleResult();
+            });
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
-            entityManager.close();
+            if (classroom != null) {
+                factory.getCache().evict(Classroom.class, classroom.getId());
+            }
         }
+        return classroom;
     }
 
-    public void updateAvailability(String roomType, long roomId, boolean flag) {
+    /*
+     * Cancels a seat in one transaction with bulk statements. Returns the seats of
+     * the laboratory after the cancellation, or null.
+     */
+    public LaboratorySeats cancelLaboratoryBooking(long studentId, long laboratoryId) {
         try {
-            entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            if (roomType.equals("cla")) {
-                Classroom classroom = entityManager.find(Classroom.class, roomId);
-                classroom.setAvailable(flag);
-                entityManager.merge(classroom);
-            } else {
-                Laboratory laboratory = entityManager.find(Laboratory.class, roomId);
-                laboratory.setAvailable(flag);
-                entityManager.merge(laboratory);
-            }
-            entityManager.getTransaction().commit();
+            return transaction(entityManager -> {
+                int deleted = entityManager.createNamedQuery("LaboratoryBooking.delete")
+                        .setParameter("laboratoryId", laboratoryId).setParameter("studentId", studentId)
+                        .executeUpdate();
+                if (deleted == 0) {
+                    return null;
+                }
+
+                freeRoom(entityManager, "lab", laboratoryId);
+                return entityManager.createNamedQuery("Laboratory.findAvailableSeatsByIds", LaboratorySeats.class)
+                        .setParameter("ids", Collections.singletonList(laboratoryId)).getSingleResult();
+            });
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
-            entityManager.close();
+            factory.getCache().evict(Laboratory.class, laboratoryId);
         }
+        return null;
     }
 
-    public boolean getAvailability(String roomType, long roomId) {
-        boolean flag = false;
+    /*
+     * A room with a cancelled booking always has a free slot or seat. The update is
+     * plain JDBC: after a bulk JPQL update Hibernate would evict every room of the
+     * type from the second-level cache, the callers evict only this one. The version
+     * still moves, so a concurrent booking of the room retries on fresh data.
+     */
+    private void freeRoom(EntityManager entityManager, String roomType, long roomId) {
+        String prefix = roomType.equals("cla") ? "CLASSROOM" : "LABORATORY";
+
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE " + prefix.toLowerCase() + " SET "
+                    + prefix + "_AVAILABLE = ?, " + prefix + "_VERSION = " + prefix + "_VERSION + 1 WHERE " + prefix
+                    + "_ID = ?")) {
+                statement.setBoolean(1, true);
+                statement.setLong(2, roomId);
+                statement.executeUpdate();
+            }
+        });
+        logChange(entityManager, roomType, roomId);
+    }
+
+    /*
+     * Runs work in a transaction that reads rooms from the database. When another
+     * transaction changed the same room first, the version check fails on commit
+     * and the work runs again on fresh data, up to MAX_ATTEMPTS times. Throws
+     * RoomNotAvailableException when the attempts run out or the work fails for
+     * any other reason, so that the caller never takes a failure for a booking.
+     */
+    private <T> T transaction(UnitOfWork<T> work) throws RoomNotAvailableException {
+        for (int attempt = 1;; attempt++) {
+            EntityManager entityManager = null;
+            try {
+                entityManager = factory.createEntityManager();
+                bypassCache(entityManager);
+                entityManager.getTransaction().begin();
+                T result = work.run(entityManager);
+                entityManager.getTransaction().commit();
+                return result;
+            } catch (RoomNotAvailableException rnae) {
+                throw rnae;
+            } catch (Exception ex) {
+                if (!isConflict(ex)) {
+                    ex.printStackTrace();
+                    throw new RoomNotAvailableException("\nThe booking could not be saved, please try again.", ex);
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new RoomNotAvailableException("\nThe room is being booked by other users, please try again.",
+                            ex);
+                }
+            } finally {
+                if (entityManager != null) {
+                    if (entityManager.getTransaction().isActive()) {
+                        entityManager.getTransaction().rollback();
+                    }
+                    entityManager.close();
+                }
+            }
+
+            // Back off for a random time, so that the conflicting bookers do not collide again.
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(attempt * RETRY_DELAY_MILLIS) + 1);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RoomNotAvailableException("\nThe booking was interrupted.", ie);
+            }
+        }
+    }
+
+    private static boolean isConflict(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface UnitOfWork<T> {
+        T run(EntityManager entityManager) throws RoomNotAvailableException;
+    }
+
+    public Collection<Classroom> getClassrooms(Collection<Long> classroomIds) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            if (roomType.equals("cla")) {
-                ClassroomBooking classroomBooking = entityManager.find(ClassroomBooking.class, roomId);
-                Classroom classroom = (Classroom)classroomBooking.getClassroom();
-                flag = classroom.getAvailable();
-            } else {
-                Laboratory laboratory = entityManager.find(Laboratory.class, roomId);
-                flag = laboratory.getAvailable();
-            }
-            entityManager.getTransaction().commit();
+            return entityManager.createNamedQuery("Classroom.findByIds", Classroom.class)
+                    .setParameter("ids", classroomIds)
+                    .setHint(FETCH_GRAPH, entityManager.getEntityGraph("Classroom.bookings")).getResultList();
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
-        return flag;
+        return null;
     }
 
-    public void deleteClassroomBooking(long bookingId) {
+    public Collection<LaboratorySeats> getLaboratorySeats(Collection<Long> laboratoryIds) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            ClassroomBooking classroomBooking = entityManager.find(ClassroomBooking.class, bookingId);
-            Classroom classroom = entityManager.find(Classroom.class, classroomBooking.getClassroom().getId());
-            classroom.deleteBooking(classroomBooking);
-            entityManager.remove(classroomBooking);
-            entityManager.merge(classroom);
-            entityManager.getTransaction().commit();
+            return entityManager.createNamedQuery("Laboratory.findAvailableSeatsByIds", LaboratorySeats.class)
+                    .setParameter("ids", laboratoryIds).getResultList();
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
+        return null;
     }
 
-    public void deleteLaboratoryBooking(long studentId, long laboratoryId) {
+    /*
+     * Room availability may have been changed by another instance: read rooms from
+     * the database and refresh their cache entries.
+     */
+    private void bypassCache(EntityManager entityManager) {
+        entityManager.setProperty("javax.persistence.cache.retrieveMode", CacheRetrieveMode.BYPASS);
+        entityManager.setProperty("javax.persistence.cache.storeMode", CacheStoreMode.REFRESH);
+    }
+
+    private Map<String, Object> fetchGraph(EntityManager entityManager, String graphName) {
+        Map<String, Object> hints = new HashMap<String, Object>();
+        hints.put(FETCH_GRAPH, entityManager.getEntityGraph(graphName));
+        return hints;
+    }
+
+    /* Change log */
+    private void logChange(EntityManager entityManager, String roomType, long roomId) {
+        // Must run inside the transaction of the change it records.
+        entityManager.persist(new ChangeLog(roomType, roomId));
+    }
+
+    public long getLastChange() {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            Laboratory laboratory = entityManager.find(Laboratory.class, laboratoryId);
-            Student student = entityManager.find(Student.class, studentId);
-            laboratory.deleteBooking(student);
-            student.deleteBooking(laboratory);
-            entityManager.merge(laboratory);
-            entityManager.merge(student);
-            entityManager.getTransaction().commit();
+
+            Long lastChange = entityManager.createNamedQuery("ChangeLog.findLast", Long.class).getSingleResult();
+
+            return lastChange == null ? 0 : lastChange;
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
+        return 0;
     }
 
-    public Classroom getClassroom(long bookingId) {
+    public long getFirstChange() {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
 
-            ClassroomBooking classroomBooking = entityManager.find(ClassroomBooking.class, bookingId);
-            Classroom classroom = entityManager.find(Classroom.class, classroomBooking.getClassroom().getId());
-            entityManager.getTransaction().commit();
-            return classroom;
+            Long firstChange = entityManager.createNamedQuery("ChangeLog.findFirst", Long.class).getSingleResult();
+
+            return firstChange == null ? 0 : firstChange;
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
-        return null;
+        return 0;
     }
 
-    public Laboratory getLaboratory(long laboratoryId) {
+    /* Changes of all room types after lastChange, in id order. */
+    public Collection<ChangeLog> getChanges(long lastChange, int maxResults) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
-            Laboratory laboratory = entityManager.find(Laboratory.class, laboratoryId);
-            entityManager.getTransaction().commit();
-            return laboratory;
+
+            return entityManager.createNamedQuery("ChangeLog.findSince", ChangeLog.class)
+                    .setParameter("lastChange", lastChange).setMaxResults(maxResults).getResultList();
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
@@ -293,35 +608,36 @@ public class HibernateDriver {
         return null;
     }
 
-    public ClassroomBooking getClassroomBooking(long classroomId, long userId, String schedule) {
+    public Collection<ChangeLog> getChanges(Collection<Long> changeIds) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
-            entityManager.getTransaction().begin();
 
-            Classroom classroom = entityManager.find(Classroom.class, classroomId);
-            Collection<ClassroomBooking> bookings = classroom.getBooking();
-            ClassroomBooking bookToRetrieve = null;
-
-            for(ClassroomBooking cla : bookings) {
-                if((cla.getPersonId() == userId) &&
-                    (cla.getSchedule().equals(schedule)) &&
-                    (cla.getClassroom().getId() == classroomId)) {
-                        bookToRetrieve = cla;
-                        break;
-                    }
-            }
-            entityManager.getTransaction().commit();
-            return bookToRetrieve;
+            return entityManager.createNamedQuery("ChangeLog.findByIds", ChangeLog.class)
+                    .setParameter("ids", changeIds).getResultList();
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             entityManager.close();
         }
-
         return null;
     }
+
+    /* Deletes the change log entries older than changeId, returns how many. */
+    public int pruneChanges(long changeId) {
+        try {
+            Integer deleted = transaction(entityManager -> entityManager.createNamedQuery("ChangeLog.deleteBefore")
+                    .setParameter("changeId", changeId).executeUpdate());
+            return deleted == null ? 0 : deleted;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return 0;
+    }
+
     /* Admin Voids */
     public void createBuilding(String name, String address) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
             entityManager.getTransaction().begin();
@@ -330,7 +646,7 @@ public class HibernateDriver {
 
             building.setName(name);
             building.setAddress(address);
-            entityManager.merge(building);
+            entityManager.persist(building);
             entityManager.getTransaction().commit();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -340,6 +656,7 @@ public class HibernateDriver {
     }
 
     public void createStudent(String name, String lastName, String email) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
             entityManager.getTransaction().begin();
@@ -349,7 +666,7 @@ public class HibernateDriver {
             student.setName(name);
             student.setLastname(lastName);
             student.setEmail(email);
-            entityManager.merge(student);
+            entityManager.persist(student);
             entityManager.getTransaction().commit();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -359,6 +676,7 @@ public class HibernateDriver {
     }
 
     public void createTeacher(String name, String lastName, String email) {
+        EntityManager entityManager = null;
         try {
             entityManager = factory.createEntityManager();
             entityManager.getTransaction().begin();
@@ -368,7 +686,7 @@ public class HibernateDriver {
             teacher.setName(name);
             teacher.setLastname(lastName);
             teacher.setEmail(email);
-            entityManager.merge(teacher);
+            entityManager.persist(teacher);
             entityManager.getTransaction().commit();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -378,6 +696,7 @@ public class HibernateDriver {
     }
 
     public void createClassroom(String name, int capacity, Building b){
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();
             entityManager.getTransaction().begin();
@@ -388,7 +707,9 @@ public class HibernateDriver {
             c.setBuilding(b);
             c.setCapacity(capacity);
             c.setName(name);
-            entityManager.merge(c);
+            // New rows: persist them, merge would first copy them into a new instance.
+            entityManager.persist(c);
+            logChange(entityManager, "cla", c.getId());
             
             entityManager.getTransaction().commit();
         }
@@ -400,6 +721,7 @@ public class HibernateDriver {
     }
 
     public void createLaboratory(String name, int capacity, Building b){
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();
             entityManager.getTransaction().begin();
@@ -410,7 +732,8 @@ public class HibernateDriver {
             l.setBuilding(b);
             l.setCapacity(capacity);
             l.setName(name);
-            entityManager.merge(l);
+            entityManager.persist(l);
+            logChange(entityManager, "lab", l.getId());
             
             entityManager.getTransaction().commit();
         }
@@ -421,17 +744,182 @@ public class HibernateDriver {
         }
     }
 
+    /*
+     * Bulk inserts used by the CSV import, one transaction per call. The ids are
+     * generated by MySQL (IDENTITY), which turns Hibernate insert batching off, so
+     * the rows go through plain JDBC batches on the connection of the session.
+     * Rows already stored, or repeated in the chunk, are skipped: one query checks
+     * the whole chunk. Emails and room names are compared ignoring case, as the
+     * columns' collation does. Return the number of rows inserted, or -1 when the
+     * chunk was rolled back.
+     */
+    public int insertUsers(String role, Collection<User> users) {
+        String table = role.equals("T") ? "teacher" : "student";
+        String prefix = table.toUpperCase();
+
+        return bulkInsert(entityManager -> {
+            Collection<String> emails = new HashSet<String>();
+            for (User user : users) {
+                emails.add(user.getEmail().toLowerCase(Locale.ROOT));
+            }
+            Set<String> stored = new HashSet<String>();
+            for (String email : entityManager
+                    .createNamedQuery(role.equals("T") ? "Teacher.findEmails" : "Student.findEmails", String.class)
+                    .setParameter("emails", emails).getResultList()) {
+                stored.add(email.toLowerCase(Locale.ROOT));
+            }
+
+            return batch(entityManager, "INSERT INTO " + table + " (" + prefix + "_NAME, " + prefix + "_LASTNAME, "
+                    + prefix + "_EMAIL) VALUES (?, ?, ?)", users, (statement, user) -> {
+                        if (!stored.add(user.getEmail().toLowerCase(Locale.ROOT))) {
+                            return false;
+                        }
+                        statement.setString(1, user.getName());
+                        statement.setString(2, user.getLastname());
+                        statement.setString(3, user.getEmail());
+                        return true;
+                    });
+        });
+    }
+
+    public int insertBuildings(Collection<BuildingNORM> buildings) {
+        int inserted = bulkInsert(entityManager -> {
+            Collection<String> names = new HashSet<String>();
+            for (BuildingNORM building : buildings) {
+                names.add(building.getName());
+            }
+            Set<String> stored = new HashSet<String>();
+            for (Building building : entityManager.createNamedQuery("Building.findByNames", Building.class)
+                    .setParameter("names", names).getResultList()) {
+                stored.add(building.getName());
+            }
+
+            return batch(entityManager, "INSERT INTO building (BUILDING_NAME, BUILDING_ADDRESS) VALUES (?, ?)",
+                    buildings, (statement, building) -> {
+                        if (!stored.add(building.getName())) {
+                            return false;
+                        }
+                        statement.setString(1, building.getName());
+                        statement.setString(2, building.getAddress());
+                        return true;
+                    });
+        });
+
+        // JDBC writes do not invalidate the cached building queries.
+        if (inserted > 0) {
+            factory.unwrap(SessionFactory.class).getCache().evictQueryRegion("building-queries");
+        }
+        return inserted;
+    }
+
+    /* Rooms name their building; rooms of an unknown building are skipped. */
+    public int insertRooms(String roomType, Collection<Available> rooms) {
+        String table = roomType.equals("cla") ? "classroom" : "laboratory";
+        String prefix = table.toUpperCase();
+
+        return bulkInsert(entityManager -> {
+            Collection<String> names = new HashSet<String>();
+            for (Available room : rooms) {
+                names.add(room.getBuilding());
+            }
+            Map<String, Long> buildings = new HashMap<String, Long>();
+            for (Building building : entityManager.createNamedQuery("Building.findByNames", Building.class)
+                    .setParameter("names", names).getResultList()) {
+                buildings.put(building.getName(), building.getId());
+            }
+            Set<String> stored = new HashSet<String>();
+            if (!buildings.isEmpty()) {
+                for (Object row : entityManager.createNativeQuery("SELECT BUILDING_ID, " + prefix + "_NAME FROM "
+                        + table + " WHERE BUILDING_ID IN (:buildings)").setParameter("buildings", buildings.values())
+                        .getResultList()) {
+                    Object[] pair = (Object[]) row;
+                    stored.add(roomKey(((Number) pair[0]).longValue(), (String) pair[1]));
+                }
+            }
+
+            long lastId = ((Number) entityManager
+                    .createNativeQuery("SELECT COALESCE(MAX(" + prefix + "_ID), 0) FROM " + table).getSingleResult())
+                    .longValue();
+            int inserted = batch(entityManager, "INSERT INTO " + table + " (" + prefix + "_NAME, " + prefix
+                    + "_CAPACITY, " + prefix + "_AVAILABLE, BUILDING_ID, " + prefix + "_VERSION) VALUES (?, ?, ?, ?, 0)",
+                    rooms, (statement, room) -> {
+                        Long buildingId = buildings.get(room.getBuilding());
+                        if (buildingId == null || !stored.add(roomKey(buildingId, room.getRoom()))) {
+                            return false;
+                        }
+                        statement.setString(1, room.getRoom());
+                        statement.setInt(2, room.getCapacity());
+                        statement.setBoolean(3, true);
+                        statement.setLong(4, buildingId);
+                        return true;
+                    });
+
+            // One change_log entry per new room, so that the local stores load them.
+            entityManager.createNativeQuery("INSERT INTO change_log (ROOM_TYPE, ROOM_ID) SELECT ?, " + prefix
+                    + "_ID FROM " + table + " WHERE " + prefix + "_ID > ?").setParameter(1, roomType)
+                    .setParameter(2, lastId).executeUpdate();
+            return inserted;
+        });
+    }
+
+    private static String roomKey(long buildingId, String roomName) {
+        return buildingId + "/" + roomName.toLowerCase(Locale.ROOT);
+    }
+
+    private int bulkInsert(UnitOfWork<Integer> work) {
+        EntityManager entityManager = null;
+        try {
+            entityManager = factory.createEntityManager();
+            entityManager.getTransaction().begin();
+            int inserted = work.run(entityManager);
+            entityManager.getTransaction().commit();
+            return inserted;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+        return -1;
+    }
+
+    /* Sends the rows hibernate.jdbc.batch_size at a time; rows the binder refuses are left out. */
+    private <T> int batch(EntityManager entityManager, String sql, Collection<T> rows, RowBinder<T> binder) {
+        int batchSize = Math.max(1,
+                factory.unwrap(SessionFactoryImplementor.class).getSessionFactoryOptions().getJdbcBatchSize());
+
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            int count = 0;
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (T row : rows) {
+                    if (!binder.bind(statement, row)) {
+                        continue;
+                    }
+                    statement.addBatch();
+                    if (++count % batchSize == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            return count;
+        });
+    }
+
+    private interface RowBinder<T> {
+        boolean bind(PreparedStatement statement, T row) throws SQLException;
+    }
+
     public Building getBuilding(long buildingId){
 
         Building build=null;
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();         
             
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Building> criteriaQuery = criteriaBuilder.createQuery(Building.class);
-            Root<Building> root = criteriaQuery.from(Building.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("buildingId"), buildingId));
-            build = entityManager.createQuery(criteriaQuery).getSingleResult();
+            build = entityManager.find(Building.class, buildingId);
             
             return build;
         }   
@@ -444,15 +932,12 @@ public class HibernateDriver {
     }
 
     public long getBuildingId(String name){
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();         
             
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Building> criteriaQuery = criteriaBuilder.createQuery(Building.class);
-            Root<Building> root = criteriaQuery.from(Building.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("buildingName"), name));
-            
-            return entityManager.createQuery(criteriaQuery).getSingleResult().getId();
+            return entityManager.createNamedQuery("Building.findByName", Building.class)
+                    .setParameter("name", name).getSingleResult().getId();
         }   
         catch(Exception ex){
             ex.printStackTrace();
@@ -464,24 +949,17 @@ public class HibernateDriver {
 
     public boolean checkDuplicateUser(String data, String role){
        
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();         
             
             if(role.equals("T")){
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Teacher> criteriaQuery = criteriaBuilder.createQuery(Teacher.class);
-            Root<Teacher> root = criteriaQuery.from(Teacher.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("teacherEmail"), data));
-            
-            return !(entityManager.createQuery(criteriaQuery).getResultList().size() > 0);  
+            return entityManager.createNamedQuery("Teacher.findByEmail", Teacher.class)
+                    .setParameter("email", data).getResultList().isEmpty();
             }
             else{
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Student> criteriaQuery = criteriaBuilder.createQuery(Student.class);
-            Root<Student> root = criteriaQuery.from(Student.class);
-            criteriaQuery.select(root).where(criteriaBuilder.equal(root.get("studentEmail"), data));
-            
-            return !(entityManager.createQuery(criteriaQuery).getResultList().size() > 0);
+            return entityManager.createNamedQuery("Student.findByEmail", Student.class)
+                    .setParameter("email", data).getResultList().isEmpty();
             }
            
         }   
@@ -495,6 +973,7 @@ public class HibernateDriver {
     }
 
     public boolean checkBuilding(long build){
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();
             
@@ -513,14 +992,11 @@ public class HibernateDriver {
 
     public Collection<Building> getBuildings(){
         Collection<Building> buildings = new ArrayList<>();
+        EntityManager entityManager = null;
         try{
             entityManager = factory.createEntityManager();
 
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Building> criteriaQuery = criteriaBuilder.createQuery(Building.class);
-            Root<Building> root = criteriaQuery.from(Building.class);
-            CriteriaQuery<Building> all = criteriaQuery.select(root);
-            buildings = entityManager.createQuery(all).getResultList();
+            buildings = entityManager.createNamedQuery("Building.findAll", Building.class).getResultList();
             
             return buildings;
         }
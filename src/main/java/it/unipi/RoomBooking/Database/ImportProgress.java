@@ -0,0 +1,8 @@
+package it.unipi.RoomBooking.Database;
+
+import it.unipi.RoomBooking.Data.NORM.ImportResult;
+
+/* Receives the running totals of a CSV import after each committed chunk. */
+public interface ImportProgress {
+    public void update(ImportResult result);
+}
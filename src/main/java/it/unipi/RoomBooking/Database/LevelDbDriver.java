@@ -9,200 +9,488 @@ import static org.fusesource.leveldbjni.JniDBFactory.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
-
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * One LevelDbDriver can be shared by many sessions. Reads run concurrently on a
+ * snapshot of the store, writes on the same room key are serialized by a striped
+ * lock, and in per-call mode each store is opened by one caller at a time.
+ *
+ * Available rooms are served from an AvailabilityIndex per room type, filled
+ * from the store in start(): the available store is only the durable copy, and
+ * each change of a room reaches both while the room lock is held.
+ */
 public class LevelDbDriver {
-	private static DB levelDb;
-	private static Options options;
+	private static final int LOCK_STRIPES = 64;
+	private static final String FORMAT_KEY = "meta:format";
+	private static final int STORE_FORMAT = 4;
+	private static final int LOAD_CHUNK = 1000;
 
 	/* Please check the correct configuration before running */
-	private static String availablePath = "./src/available"; 	//Windows Path: .\\src\\available 
-	private static String bookingsPath = "./src/bookings"; 		//Windows Path: .\\src\\bookings
+	private static String defaultAvailablePath = "./src/available"; 	//Windows Path: .\\src\\available 
+	private static String defaultBookingsPath = "./src/bookings"; 		//Windows Path: .\\src\\bookings
+	private static boolean keepOpen = true; 					//false: open and close the stores on every call
+	private static boolean syncWrites = false; 					//true: flush the write-ahead log on every write
+	private static boolean persistent = true; 					//false: destroy the stores on exit
+
+	private final String availablePath;
+	private final String bookingsPath;
+	private final Lock availableLock = new ReentrantLock();
+	private final Lock bookingsLock = new ReentrantLock();
+	private final Lock[] roomLocks = new Lock[LOCK_STRIPES];
+	private final AvailabilityIndex classrooms = new AvailabilityIndex("cla");
+	private final AvailabilityIndex laboratories = new AvailabilityIndex("lab");
+
+	private volatile Options options;
+	private volatile WriteOptions writeOptions;
+	private volatile DB availableDb;
+	private volatile DB bookingsDb;
+
+	public LevelDbDriver() {
+		this(defaultAvailablePath, defaultBookingsPath);
+	}
+
+	/* Stores in other directories than the configured ones, e.g. in tests. */
+	public LevelDbDriver(String availablePath, String bookingsPath) {
+		this.availablePath = availablePath;
+		this.bookingsPath = bookingsPath;
+
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			roomLocks[i] = new ReentrantLock();
+		}
+	}
 
 	public void start() {
-		options = new Options();
-		options.compressionType(CompressionType.NONE);
-		options.createIfMissing(true);
+		Options storeOptions = new Options();
+		storeOptions.compressionType(CompressionType.NONE);
+		storeOptions.createIfMissing(true);
+		options = storeOptions;
+		writeOptions = new WriteOptions().sync(syncWrites);
+
+		if (keepOpen) {
+			try {
+				availableDb = factory.open(new File(availablePath), options);
+				bookingsDb = factory.open(new File(bookingsPath), options);
+			} catch (IOException ioe) {
+				// Every later call would find a null store: stop here, e.g. when another process holds the LOCK file.
+				if (availableDb != null) {
+					try {
+						availableDb.close();
+					} catch (IOException closeError) {
+						ioe.addSuppressed(closeError);
+					}
+					availableDb = null;
+				}
+				throw new UncheckedIOException("Cannot open the LevelDB stores", ioe);
+			}
+		}
+		migrateAvailable();
+		loadIndex("cla");
+		loadIndex("lab");
 	}
 
 	public void exit() {
 		try {
-			factory.destroy(new File(availablePath), options);
-			factory.destroy(new File(bookingsPath), options);
+			if (keepOpen) {
+				if (availableDb != null) {
+					availableDb.close();
+				}
+				if (bookingsDb != null) {
+					bookingsDb.close();
+				}
+			}
+			if (!persistent) {
+				factory.destroy(new File(availablePath), options);
+				factory.destroy(new File(bookingsPath), options);
+			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		}
 	}
 
-	public void putAvailable(String roomType, long roomId, String roomName, String buildingName, int capacity,
-			String available) throws IOException {
+	private Lock storeLock(String path) {
+		return path.equals(availablePath) ? availableLock : bookingsLock;
+	}
+
+	private DB open(String path) throws IOException {
+		// With long-lived handles the stores opened in start() are reused.
+		if (keepOpen) {
+			return path.equals(availablePath) ? availableDb : bookingsDb;
+		}
+
+		// LevelDB allows a single open handle per store, so per-call opens are serialized.
+		Lock lock = storeLock(path);
+		lock.lock();
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			String keyName = roomType + ":" + roomId + ":roomname";
-			levelDb.put(bytes(keyName), bytes(roomName));
-			String keyBuilding = roomType + ":" + roomId + ":buildingname";
-			levelDb.put(bytes(keyBuilding), bytes(buildingName));
-			String keyCapacity = roomType + ":" + roomId + ":roomcapacity";
-			levelDb.put(bytes(keyCapacity), bytes(Integer.toString(capacity)));
-			String keyAvailable = roomType + ":" + roomId + ":available";
-			levelDb.put(bytes(keyAvailable), bytes(available));
+			return factory.open(new File(path), options);
 		} catch (IOException ioe) {
-			ioe.printStackTrace();
-		} finally {
-			levelDb.close();
+			lock.unlock();
+			throw ioe;
 		}
 	}
 
-	public void deleteFromAvailable(String roomType, long roomId) throws IOException {
+	private void release(String path, DB db) throws IOException {
+		if (!keepOpen && db != null) {
+			try {
+				db.close();
+			} finally {
+				storeLock(path).unlock();
+			}
+		}
+	}
+
+	private AvailabilityIndex index(String roomType) {
+		return roomType.equals("cla") ? classrooms : laboratories;
+	}
+
+	private int stripe(String roomType, long roomId) {
+		return Math.floorMod((roomType + ":" + roomId).hashCode(), LOCK_STRIPES);
+	}
+
+	private Lock lockRoom(String roomType, long roomId) {
+		Lock lock = roomLocks[stripe(roomType, roomId)];
+		lock.lock();
+		return lock;
+	}
+
+	/* Locks two rooms, always in stripe order so that two moves cannot deadlock. */
+	private Lock[] lockRooms(String roomType, long firstRoomId, long secondRoomId) {
+		int first = stripe(roomType, firstRoomId);
+		int second = stripe(roomType, secondRoomId);
+		Lock[] locks = { roomLocks[Math.min(first, second)], roomLocks[Math.max(first, second)] };
+
+		// The locks are reentrant, so two rooms on the same stripe take it twice.
+		locks[0].lock();
+		locks[1].lock();
+		return locks;
+	}
+
+	/*
+	 * The epoch of a room type is the last MySQL change_log entry already
+	 * applied to its rooms, -1 when the rooms have never been loaded.
+	 */
+	public long getEpoch(String roomType) throws IOException {
+		DB levelDb = null;
+
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			String keyName = roomType + ":" + roomId + ":roomname";
-			levelDb.delete(bytes(keyName));
-			String keyBuilding = roomType + ":" + roomId + ":buildingname";
-			levelDb.delete(bytes(keyBuilding));
-			String keyCapacity = roomType + ":" + roomId + ":roomcapacity";
-			levelDb.delete(bytes(keyCapacity));
-			String keyAvailable = roomType + ":" + roomId + ":available";
-			levelDb.delete(bytes(keyAvailable));
+			levelDb = open(availablePath);
+			byte[] epoch = levelDb.get(bytes("meta:epoch:" + roomType));
+
+			if (epoch != null) {
+				return Long.parseLong(asString(epoch));
+			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(availablePath, levelDb);
 		}
+		return -1;
 	}
 
-	public void increaseLaboratoryAvailability(long roomId) throws IOException {
+	public void setEpoch(String roomType, long epoch) throws IOException {
+		setEpoch(roomType, epoch, new ArrayList<Long>());
+	}
+
+	/* Stores the epoch together with the change ids below it that have not been seen yet. */
+	public void setEpoch(String roomType, long epoch, Collection<Long> gaps) throws IOException {
+		DB levelDb = null;
+
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			String key = "lab:" + roomId + ":available";
-			int seats = Integer.parseInt(asString(levelDb.get(bytes(key)))) + 1;
-			levelDb.put(bytes(key), bytes(Integer.toString(seats)));
+			levelDb = open(availablePath);
+			WriteBatch batch = levelDb.createWriteBatch();
 
+			try {
+				StringBuilder ids = new StringBuilder();
+				for (long id : gaps) {
+					ids.append(ids.length() == 0 ? "" : ",").append(id);
+				}
+				batch.put(bytes("meta:epoch:" + roomType), bytes(Long.toString(epoch)));
+				batch.put(bytes("meta:gaps:" + roomType), bytes(ids.toString()));
+				levelDb.write(batch, writeOptions);
+			} finally {
+				batch.close();
+			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(availablePath, levelDb);
 		}
 	}
 
-	public void decreaseLaboratoryAvailability(long roomId) throws IOException {
+	public Collection<Long> getGaps(String roomType) throws IOException {
+		Collection<Long> gaps = new ArrayList<Long>();
+		DB levelDb = null;
+
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			String key = "lab:" + roomId + ":available";
-			int seats = Integer.parseInt(asString(levelDb.get(bytes(key)))) - 1;
-			levelDb.put(bytes(key), bytes(Integer.toString(seats)));
+			levelDb = open(availablePath);
+			byte[] ids = levelDb.get(bytes("meta:gaps:" + roomType));
+
+			if (ids != null && ids.length > 0) {
+				for (String id : asString(ids).split(",")) {
+					gaps.add(Long.parseLong(id));
+				}
+			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(availablePath, levelDb);
 		}
+		return gaps;
+	}
+
+	public AvailableLoader loadAvailable(String roomType) throws IOException {
+		return new AvailableLoader(roomType);
 	}
 
-	public void setClassroomAvailability(long roomId) throws IOException {
+	/*
+	 * Bulk load of the rooms of one type. The rooms already stored for that type
+	 * are dropped, then the new ones are written on a single open handle in
+	 * WriteBatch chunks of LOAD_CHUNK rooms. Rooms are not locked one by one, so
+	 * the load must run before the store is shared with other writers.
+	 */
+	public class AvailableLoader implements Closeable {
+		private final String roomType;
+		private final DB levelDb;
+		private WriteBatch batch;
+		private int pending;
+		private int count;
+
+		private AvailableLoader(String roomType) throws IOException {
+			this.roomType = roomType;
+			this.levelDb = open(availablePath);
+
+			try {
+				batch = levelDb.createWriteBatch();
+				clear(roomType + ":");
+				index(roomType).clear();
+			} catch (IOException | RuntimeException e) {
+				release(availablePath, levelDb);
+				throw e;
+			}
+		}
+
+		private void clear(String prefix) throws IOException {
+			DBIterator iterator = levelDb.iterator();
+
+			try {
+				for (iterator.seek(bytes(prefix)); iterator.hasNext(); iterator.next()) {
+					byte[] key = iterator.peekNext().getKey();
+
+					if (!asString(key).startsWith(prefix)) {
+						break;
+					}
+					batch.delete(key);
+					pending++;
+
+					if (pending == LOAD_CHUNK) {
+						flush();
+					}
+				}
+			} finally {
+				iterator.close();
+			}
+			flush();
+		}
+
+		public void add(long roomId, String roomName, String buildingName, int capacity, String available)
+				throws IOException {
+			batch.put(bytes(roomType + ":" + roomId), encodeRoom(roomName, buildingName, capacity, available));
+			index(roomType).put(roomId, roomName, buildingName, capacity, available);
+			pending++;
+			count++;
+
+			if (pending == LOAD_CHUNK) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			if (pending > 0) {
+				levelDb.write(batch, writeOptions);
+				batch.close();
+				batch = levelDb.createWriteBatch();
+				pending = 0;
+			}
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				batch.close();
+				release(availablePath, levelDb);
+			}
+		}
+	}
+
+	public void putAvailable(String roomType, long roomId, String roomName, String buildingName, int capacity,
+			String available) throws IOException {
+		DB levelDb = null;
+		Lock lock = lockRoom(roomType, roomId);
+
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			String key = "cla:" + roomId + ":available";
-			levelDb.put(bytes(key), bytes("f"));
+			levelDb = open(availablePath);
+			levelDb.put(bytes(roomType + ":" + roomId), encodeRoom(roomName, buildingName, capacity, available),
+					writeOptions);
+			index(roomType).put(roomId, roomName, buildingName, capacity, available);
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(availablePath, levelDb);
+			lock.unlock();
 		}
 	}
 
-	public void updateClassroomAvailability(long roomId, String requestedSchedule) throws IOException {
+	public void deleteFromAvailable(String roomType, long roomId) throws IOException {
+		DB levelDb = null;
+		Lock lock = lockRoom(roomType, roomId);
+
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			levelDb.delete(bytes("cla:" + roomId + ":available"));
-			if (requestedSchedule.equals("m")) {
-				levelDb.put(bytes("cla:" + roomId + ":available"), bytes("a"));
-			} else {
-				levelDb.put(bytes("cla:" + roomId + ":available"), bytes("m"));
-			}
+			levelDb = open(availablePath);
+			levelDb.delete(bytes(roomType + ":" + roomId), writeOptions);
+			index(roomType).remove(roomId);
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(availablePath, levelDb);
+			lock.unlock();
 		}
 	}
 
 	public void putBooked(long userId, String roomType, long roomId, String roomName, String schedule)
 			throws IOException {
+		DB levelDb = null;
+		Lock lock = lockRoom(roomType, roomId);
+
 		try {
-			levelDb = factory.open(new File(bookingsPath), options);
-			String keyName = roomType + ":" + userId + ":" + roomId + ":roomname";
-			levelDb.put(bytes(keyName), bytes(roomName));
+			levelDb = open(bookingsPath);
+			WriteBatch batch = levelDb.createWriteBatch();
+
+			try {
+				String prefix = roomType + ":" + userId + ":" + roomId;
+				batch.put(bytes(prefix + ":roomname"), bytes(roomName));
 
-			if (roomType.equals("cla")) {
-				String keySchedule = roomType + ":" + userId + ":" + roomId + ":schedule";
-				levelDb.put(bytes(keySchedule), bytes(schedule));
+				if (roomType.equals("cla")) {
+					batch.put(bytes(prefix + ":schedule"), bytes(schedule));
+				}
+				levelDb.write(batch, writeOptions);
+			} finally {
+				batch.close();
 			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(bookingsPath, levelDb);
+			lock.unlock();
+		}
+	}
+
+	/* Replaces the booking of a room with the booking of another room in a single batch. */
+	public void moveBooked(long userId, String roomType, long fromRoomId, long toRoomId, String roomName,
+			String schedule) throws IOException {
+		DB levelDb = null;
+		Lock[] locks = lockRooms(roomType, fromRoomId, toRoomId);
+
+		try {
+			levelDb = open(bookingsPath);
+			WriteBatch batch = levelDb.createWriteBatch();
+
+			try {
+				String from = roomType + ":" + userId + ":" + fromRoomId;
+				String to = roomType + ":" + userId + ":" + toRoomId;
+				batch.delete(bytes(from + ":roomname"));
+				batch.put(bytes(to + ":roomname"), bytes(roomName));
+
+				if (roomType.equals("cla")) {
+					batch.delete(bytes(from + ":schedule"));
+					batch.put(bytes(to + ":schedule"), bytes(schedule));
+				}
+				levelDb.write(batch, writeOptions);
+			} finally {
+				batch.close();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			release(bookingsPath, levelDb);
+			locks[1].unlock();
+			locks[0].unlock();
 		}
 	}
 
 	public void deleteBooked(String roomType, long roomId, long userId) throws IOException {
+		DB levelDb = null;
+		Lock lock = lockRoom(roomType, roomId);
+
 		try {
-			levelDb = factory.open(new File(bookingsPath), options);
-			String keyName = roomType + ":" + userId + ":" + roomId + ":roomname";
-			levelDb.delete(bytes(keyName));
+			levelDb = open(bookingsPath);
+			WriteBatch batch = levelDb.createWriteBatch();
 
-			if (roomType.equals("cla")) {
-				String keySchedule = roomType + ":" + userId + ":" + roomId + ":schedule";
-				levelDb.delete(bytes(keySchedule));
+			try {
+				String prefix = roomType + ":" + userId + ":" + roomId;
+				batch.delete(bytes(prefix + ":roomname"));
+
+				if (roomType.equals("cla")) {
+					batch.delete(bytes(prefix + ":schedule"));
+				}
+				levelDb.write(batch, writeOptions);
+			} finally {
+				batch.close();
 			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(bookingsPath, levelDb);
+			lock.unlock();
 		}
 	}
 
-	public Collection<Booked> getBooked(String role) throws IOException {
-		Collection<Booked> bookings = new ArrayList<Booked>();
+	public void clearBooked(long userId, String roomType) throws IOException {
+		DB levelDb = null;
 
 		try {
-			levelDb = factory.open(new File(bookingsPath), options);
+			levelDb = open(bookingsPath);
 			DBIterator iterator = levelDb.iterator();
+			WriteBatch batch = levelDb.createWriteBatch();
+			String prefix = roomType + ":" + userId + ":";
 
-			if (role.equals("S")) {
-				for (iterator.seek(bytes("lab:")); iterator.hasNext(); iterator.next()) {
-					String key = asString(iterator.peekNext().getKey());
-					String[] keySplit = key.split(":");
-					String roomName = asString(iterator.peekNext().getValue());
-					bookings.add(new Booked(Long.parseLong(keySplit[2]), roomName, null, "lab"));
-				}
-			} else {
-				for (iterator.seek(bytes("cla:")); iterator.hasNext(); iterator.next()) {
-					String key = asString(iterator.peekNext().getKey());
+			try {
+				for (iterator.seek(bytes(prefix)); iterator.hasNext(); iterator.next()) {
+					byte[] key = iterator.peekNext().getKey();
 
-					if (key.endsWith("roomname")) {
-						String[] keySplit = key.split(":");
-						String roomName = asString(levelDb.get(bytes(key)));
-						String schedule = asString(
-								levelDb.get(bytes("cla:" + keySplit[1] + ":" + keySplit[2] + ":schedule")));
-						bookings.add(new Booked(Long.parseLong(keySplit[2]), roomName, schedule, "cla"));
+					if (!asString(key).startsWith(prefix)) {
+						break;
 					}
+					batch.delete(key);
 				}
+				levelDb.write(batch, writeOptions);
+			} finally {
+				iterator.close();
+				batch.close();
 			}
-
-			iterator.close();
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			release(bookingsPath, levelDb);
 		}
-		return bookings;
 	}
 
-	public Collection<Available> getAvailable(String requestedSchedule, String role) throws IOException {
-		Collection<Available> availables = new ArrayList<Available>();
+	public Collection<Booked> getBooked(long userId, String role) throws IOException {
+		Collection<Booked> bookings = new ArrayList<Booked>();
+		DB levelDb = null;
+		Snapshot snapshot = null;
 
 		try {
-			levelDb = factory.open(new File(availablePath), options);
-			DBIterator iterator = levelDb.iterator();
+			levelDb = open(bookingsPath);
+			snapshot = levelDb.getSnapshot();
 			String roomType;
 
 			if (role.equals("S")) {
@@ -211,43 +499,209 @@ public class LevelDbDriver {
 				roomType = "cla";
 			}
 
-			for (iterator.seek(bytes(roomType + ":")); iterator.hasNext(); iterator.next()) {
-				String key = asString(iterator.peekNext().getKey());
+			// Bookings of a user are contiguous under "type:userId:", the scan stops at the end of that range.
+			String prefix = roomType + ":" + userId + ":";
+			Booked last = null;
+			DBIterator iterator = levelDb.iterator(new ReadOptions().snapshot(snapshot));
 
-				if (key.endsWith("available")) {
-					String available = asString(levelDb.get(bytes(key)));
-					boolean isAvailable = true;
-
-					if (roomType.equals("cla")) {
-						if (!(available.equals(requestedSchedule) || available.equals("f"))) {
-							isAvailable = false;
-						}
-					} else {
-						if (Integer.parseInt(available) == 0) {
-							isAvailable = false;
-						}
+			try {
+				for (iterator.seek(bytes(prefix)); iterator.hasNext(); iterator.next()) {
+					String key = asString(iterator.peekNext().getKey());
+
+					if (!key.startsWith(prefix)) {
+						break;
 					}
 
-					if (isAvailable) {
-						String[] keySplit = key.split(":");
-						String name = asString(levelDb.get(bytes(roomType + ":" + keySplit[1] + ":roomname")));
-						String building = asString(
-								levelDb.get(bytes(roomType + ":" + keySplit[1] + ":buildingname")));
-						int capacity = Integer.parseInt(
-								asString(levelDb.get(bytes(roomType + ":" + keySplit[1] + ":roomcapacity"))));
-						availables.add(new Available(name, building, available, roomType, Long.parseLong(keySplit[1]),
-								capacity));
+					String[] keySplit = key.substring(prefix.length()).split(":");
+					String value = asString(iterator.peekNext().getValue());
+
+					// "roomname" sorts before "schedule", so the schedule always follows its booking.
+					if (keySplit[1].equals("roomname")) {
+						last = new Booked(Long.parseLong(keySplit[0]), value, null, roomType);
+						bookings.add(last);
+					} else if (keySplit[1].equals("schedule") && last != null) {
+						last.setSchedule(value);
 					}
 				}
+			} finally {
+				iterator.close();
 			}
-			iterator.close();
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			levelDb.close();
+			if (snapshot != null) {
+				snapshot.close();
+			}
+			release(bookingsPath, levelDb);
 		}
+		return bookings;
+	}
+
+	/* Served from memory, without touching the store. */
+	public Collection<Available> getAvailable(String requestedSchedule, String role) throws IOException {
+		if (role.equals("S")) {
+			return laboratories.getAvailable(null);
+		}
+		return classrooms.getAvailable(requestedSchedule);
+	}
+
+	/*
+	 * A room is stored under "type:id" as one binary record:
+	 * name (UTF), building name (UTF), capacity (int), availability (UTF).
+	 */
+	private static byte[] encodeRoom(String roomName, String buildingName, int capacity, String available)
+			throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeUTF(roomName);
+		out.writeUTF(buildingName);
+		out.writeInt(capacity);
+		out.writeUTF(available);
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	private static Available decodeRoom(String roomType, long roomId, byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		String roomName = in.readUTF();
+		String buildingName = in.readUTF();
+		int capacity = in.readInt();
+		String available = in.readUTF();
+		return new Available(roomName, buildingName, available, roomType, roomId, capacity);
+	}
+
+	/* Fills the index of a room type from the records in the store. */
+	private void loadIndex(String roomType) {
+		DB levelDb = null;
+		String prefix = roomType + ":";
+		AvailabilityIndex index = index(roomType);
 
-		return availables;
+		try {
+			levelDb = open(availablePath);
+			DBIterator iterator = levelDb.iterator();
+
+			try {
+				index.clear();
+
+				for (iterator.seek(bytes(prefix)); iterator.hasNext(); iterator.next()) {
+					String key = asString(iterator.peekNext().getKey());
+
+					if (!key.startsWith(prefix)) {
+						break;
+					}
+
+					long roomId = Long.parseLong(key.substring(prefix.length()));
+					Available room = decodeRoom(roomType, roomId, iterator.peekNext().getValue());
+					index.put(roomId, room.getRoom(), room.getBuilding(), room.getCapacity(), room.getAvailable());
+				}
+			} finally {
+				iterator.close();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			try {
+				release(availablePath, levelDb);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Brings a store written by an older version up to STORE_FORMAT:
+	 * format 2 packs each room in one record, format 3 added a schedule index
+	 * of the classrooms that format 4 drops, since the lists are served from
+	 * the AvailabilityIndex.
+	 */
+	private void migrateAvailable() {
+		DB levelDb = null;
+
+		try {
+			levelDb = open(availablePath);
+			byte[] format = levelDb.get(bytes(FORMAT_KEY));
+			int storeFormat = format == null ? 1 : Integer.parseInt(asString(format));
+
+			if (storeFormat < 2) {
+				migrateLegacyRooms(levelDb);
+			}
+			if (storeFormat < 4) {
+				dropScheduleIndex(levelDb);
+			}
+			if (storeFormat < STORE_FORMAT) {
+				levelDb.put(bytes(FORMAT_KEY), bytes(Integer.toString(STORE_FORMAT)), writeOptions);
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} finally {
+			try {
+				release(availablePath, levelDb);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Rewrites rooms stored with one key per field ("type:id:field") into
+	 * single records. Rooms with missing fields are dropped.
+	 */
+	private void migrateLegacyRooms(DB levelDb) throws IOException {
+		Map<String, Map<String, String>> legacyRooms = new LinkedHashMap<String, Map<String, String>>();
+		WriteBatch batch = levelDb.createWriteBatch();
+
+		try {
+			DBIterator iterator = levelDb.iterator();
+
+			for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
+				String key = asString(iterator.peekNext().getKey());
+				String[] keySplit = key.split(":");
+
+				if (keySplit.length == 3 && (keySplit[0].equals("cla") || keySplit[0].equals("lab"))) {
+					String roomKey = keySplit[0] + ":" + keySplit[1];
+
+					if (!legacyRooms.containsKey(roomKey)) {
+						legacyRooms.put(roomKey, new HashMap<String, String>());
+					}
+					legacyRooms.get(roomKey).put(keySplit[2], asString(iterator.peekNext().getValue()));
+					batch.delete(bytes(key));
+				}
+			}
+			iterator.close();
+
+			for (Map.Entry<String, Map<String, String>> room : legacyRooms.entrySet()) {
+				Map<String, String> fields = room.getValue();
+
+				if (fields.containsKey("roomname") && fields.containsKey("buildingname")
+						&& fields.containsKey("roomcapacity") && fields.containsKey("available")) {
+					batch.put(bytes(room.getKey()), encodeRoom(fields.get("roomname"), fields.get("buildingname"),
+							Integer.parseInt(fields.get("roomcapacity")), fields.get("available")));
+				}
+			}
+			levelDb.write(batch, writeOptions);
+		} finally {
+			batch.close();
+		}
+	}
+
+	private void dropScheduleIndex(DB levelDb) throws IOException {
+		WriteBatch batch = levelDb.createWriteBatch();
+		DBIterator iterator = levelDb.iterator();
+
+		try {
+			for (iterator.seek(bytes("idx:")); iterator.hasNext(); iterator.next()) {
+				String key = asString(iterator.peekNext().getKey());
+
+				if (!key.startsWith("idx:")) {
+					break;
+				}
+				batch.delete(bytes(key));
+			}
+			levelDb.write(batch, writeOptions);
+		} finally {
+			iterator.close();
+			batch.close();
+		}
 	}
 
 }
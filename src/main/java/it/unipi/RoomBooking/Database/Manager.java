@@ -3,6 +3,7 @@ package it.unipi.RoomBooking.Database;
 import java.util.Collection;
 
 import it.unipi.RoomBooking.Data.NORM.*;
+import it.unipi.RoomBooking.Exceptions.RoomNotAvailableException;
 import it.unipi.RoomBooking.Exceptions.UserNotExistException;
 
 public interface Manager {
@@ -11,9 +12,9 @@ public interface Manager {
     public void initializeAvailable(User user);
     public void initializeBooked(User user);
     public User authenticate(String email) throws UserNotExistException;
-    public Collection<Available> getAvailable(String requestedSchedule, String role);
-    public Collection<Booked> getBooked(String role);
-    public void setBooking(User user, Available roomToBook, String requestedSchedule);
+    public Collection<Available> getAvailable(String requestedSchedule, User user);
+    public Collection<Booked> getBooked(User user);
+    public void setBooking(User user, Available roomToBook, String requestedSchedule) throws RoomNotAvailableException;
     public void deleteBooking(User user, Booked booked);
-    public void updateBooking(User user, Available roomToBook, String requestedSchedule, Booked booked);
+    public void updateBooking(User user, Available roomToBook, String requestedSchedule, Booked booked) throws RoomNotAvailableException;
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package it.unipi.RoomBooking.Database;
+
+import java.io.IOException;
+
+/* Receives the rooms of a streamed query one at a time. */
+public interface RoomHandler<T> {
+    public void handle(T room) throws IOException;
+}
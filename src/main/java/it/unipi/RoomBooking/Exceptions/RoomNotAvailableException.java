@@ -0,0 +1,17 @@
+package it.unipi.RoomBooking.Exceptions;
+
+public class RoomNotAvailableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RoomNotAvailableException(String message) {
+        super(message);
+    }
+
+    public RoomNotAvailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RoomNotAvailableException() {
+        super();
+    }
+}
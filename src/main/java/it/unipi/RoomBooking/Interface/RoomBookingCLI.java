@@ -7,7 +7,9 @@ import it.unipi.RoomBooking.Data.NORM.Available;
 import it.unipi.RoomBooking.Data.NORM.Booked;
 import it.unipi.RoomBooking.Data.NORM.User;
 import it.unipi.RoomBooking.Data.NORM.BuildingNORM;
+import it.unipi.RoomBooking.Data.NORM.ImportResult;
 import it.unipi.RoomBooking.Database.*;
+import it.unipi.RoomBooking.Exceptions.RoomNotAvailableException;
 import it.unipi.RoomBooking.Exceptions.UserNotExistException;
 
 public final class RoomBookingCLI {
@@ -58,7 +60,8 @@ public final class RoomBookingCLI {
 
 		if (user.getRole().equals("A")) {
 			out.println(
-					"\n1 - Insert a student." + "\n2 - Insert a teacher." + "\n3 - Insert a room." + "\n4 - Close. ");
+					"\n1 - Insert a student." + "\n2 - Insert a teacher." + "\n3 - Insert a room."
+							+ "\n4 - Import from a CSV file." + "\n5 - Close. ");
 		} else {
 			out.println("\n1 - Book a Room." + "\n2 - Delete a booking." + "\n3 - Update a booking." + "\n4 - Close.");
 		}
@@ -67,7 +70,8 @@ public final class RoomBookingCLI {
 			out.print("\nChoose an action > ");
 			command = input.nextLine();
 
-			if (!command.equals("4") && !command.equals("3") && !command.equals("2") && !command.equals("1")) {
+			if (!command.equals("4") && !command.equals("3") && !command.equals("2") && !command.equals("1")
+					&& !(command.equals("5") && user.getRole().equals("A"))) {
 				out.println(YELLOW + "\nPlease insert a valid command." + WHITE);
 			} else {
 				isValid = true;
@@ -195,7 +199,7 @@ public final class RoomBookingCLI {
 			requestedSchedule = setSchedule();
 		}
 
-		availableRooms = database.getAvailable(requestedSchedule, user.getRole());
+		availableRooms = database.getAvailable(requestedSchedule, user);
 		if (availableRooms.size() == 0) {
 			out.println(RED + "\nNo available rooms." + WHITE);
 			return;
@@ -222,8 +226,12 @@ public final class RoomBookingCLI {
 			if (!isValid) {
 				out.println(YELLOW + "\nPlease insert a valid room." + WHITE);
 			} else {
-				database.setBooking(user, room, requestedSchedule);
-				out.println(GREEN + "\nRoom succesfully booked." + WHITE);
+				try {
+					database.setBooking(user, room, requestedSchedule);
+					out.println(GREEN + "\nRoom succesfully booked." + WHITE);
+				} catch (RoomNotAvailableException rex) {
+					out.println(RED + rex.getMessage() + WHITE);
+				}
 			}
 		}
 	}
@@ -233,7 +241,7 @@ public final class RoomBookingCLI {
 		Booked bookToDelete = null;
 		Collection<Booked> bookedRooms;
 
-		bookedRooms = database.getBooked(user.getRole());
+		bookedRooms = database.getBooked(user);
 
 		if (bookedRooms.size() == 0) {
 			out.println(RED + "\nNo bookings." + WHITE);
@@ -275,7 +283,7 @@ public final class RoomBookingCLI {
 		Available roomAvailable = null;
 		boolean isValid = false;
 
-		bookedRooms = database.getBooked(user.getRole());
+		bookedRooms = database.getBooked(user);
 
 		if (bookedRooms.size() == 0) {
 			out.println(RED + "\nNo bookings." + WHITE);
@@ -314,7 +322,7 @@ public final class RoomBookingCLI {
 				requestedSchedule = setSchedule();
 			}
 
-			availableRooms = database.getAvailable(requestedSchedule, user.getRole());
+			availableRooms = database.getAvailable(requestedSchedule, user);
 
 			if (availableRooms.size() == 0) {
 				out.println(RED + "\nNo available rooms." + WHITE);
@@ -342,8 +350,12 @@ public final class RoomBookingCLI {
 				if (!isValid) {
 					out.println(YELLOW + "\nPlease insert a valid room." + WHITE);
 				} else {
-					database.updateBooking(user, roomAvailable, requestedSchedule, room);
-					out.println(GREEN + "\nBooking succesfully updated." + WHITE);
+					try {
+						database.updateBooking(user, roomAvailable, requestedSchedule, room);
+						out.println(GREEN + "\nBooking succesfully updated." + WHITE);
+					} catch (RoomNotAvailableException rex) {
+						out.println(RED + rex.getMessage() + WHITE);
+					}
 				}
 
 			}
@@ -502,6 +514,33 @@ public final class RoomBookingCLI {
 		addRoom(buildingId);
 	}
 
+	private static void importCsv() {
+		String[] types = { "S", "T", "B", "R" };
+		int command = 0;
+
+		out.println("\nWhat do you want to import?\n");
+		out.println("1 - Students (name,lastname,email)" + "\n2 - Teachers (name,lastname,email)"
+				+ "\n3 - Buildings (name,address)" + "\n4 - Rooms (cla|lab,name,capacity,building name)");
+
+		while (command < 1 || command > 4) {
+			out.print("\nChoose an action > ");
+			command = getInt();
+			input.nextLine();
+		}
+
+		out.print("\nInsert the path of the CSV file > ");
+		String path = input.nextLine();
+
+		ImportResult result = database.importCsv(types[command - 1], path,
+				progress -> out.print("\r" + progress.getRead() + " rows read (" + progress.getRowsPerSecond() + " rows/s)"));
+
+		if (result == null) {
+			out.println(RED + "\nThe file could not be read." + WHITE);
+		} else {
+			out.println(GREEN + "\nImport completed: " + result.toString() + WHITE);
+		}
+	}
+
 	public static void main(String[] args) {
 
 		database = new DBSManager();
@@ -561,6 +600,9 @@ public final class RoomBookingCLI {
 					addBuilding();
 					break;
 				case 14:
+					importCsv();
+					break;
+				case 15:
 					terminate = true;
 					out.println("\nSee you soon!");
 					break;
@@ -0,0 +1,138 @@
+package it.unipi.RoomBooking.Database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.unipi.RoomBooking.Data.NORM.Available;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/* Runs on an in-memory H2 database and LevelDB stores in a temporary directory, no MySQL needed. */
+public class CacheSynchronizerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedDatabase database;
+    private HibernateDriver hibernate;
+    private LevelDbDriver levelDb;
+
+    @Before
+    public void start() throws Exception {
+        database = new EmbeddedDatabase("synchronizer");
+        hibernate = database.getHibernate();
+
+        levelDb = new LevelDbDriver(folder.newFolder("available").getPath(), folder.newFolder("bookings").getPath());
+        levelDb.start();
+
+        database.execute("INSERT INTO building (BUILDING_ID, BUILDING_NAME, BUILDING_ADDRESS)"
+                + " VALUES (1, 'B1', 'Largo Pontecorvo')");
+        for (int lab = 1; lab <= 2; lab++) {
+            database.execute("INSERT INTO laboratory (LABORATORY_ID, LABORATORY_NAME, LABORATORY_CAPACITY,"
+                    + " LABORATORY_AVAILABLE, LABORATORY_VERSION, BUILDING_ID) VALUES (" + lab + ", 'L" + lab
+                    + "', 10, TRUE, 0, 1)");
+            levelDb.putAvailable("lab", lab, "L" + lab, "B1", 10, "10");
+        }
+        levelDb.setEpoch("lab", 0);
+    }
+
+    @After
+    public void exit() throws Exception {
+        levelDb.exit();
+        database.close();
+    }
+
+    /*
+     * The transaction holding the lower change id commits after the one
+     * holding the higher id has been synchronized: its change must still
+     * reach the store.
+     */
+    @Test
+    public void lateCommitsAreReplayed() throws Exception {
+        CacheSynchronizer synchronizer = new CacheSynchronizer(hibernate, levelDb);
+
+        try (Connection first = openTransaction(); Connection second = openTransaction()) {
+            closeLaboratory(first, 1);
+            closeLaboratory(second, 2);
+            second.commit();
+
+            assertEquals(1, synchronizer.synchronize("lab"));
+            assertEquals(0, freeSeats(2));
+            assertEquals(10, freeSeats(1));
+            assertEquals(2, levelDb.getEpoch("lab"));
+            assertTrue(levelDb.getGaps("lab").contains(1L));
+
+            first.commit();
+        }
+
+        assertEquals(1, synchronizer.synchronize("lab"));
+        assertEquals(0, freeSeats(1));
+        assertTrue(levelDb.getGaps("lab").isEmpty());
+    }
+
+    /* The gaps are stored with the epoch, so a new session keeps looking for them. */
+    @Test
+    public void gapsSurviveARestart() throws Exception {
+        try (Connection first = openTransaction(); Connection second = openTransaction()) {
+            closeLaboratory(first, 1);
+            closeLaboratory(second, 2);
+            second.commit();
+
+            new CacheSynchronizer(hibernate, levelDb).synchronize("lab");
+            first.commit();
+        }
+
+        assertEquals(1, new CacheSynchronizer(hibernate, levelDb).synchronize("lab"));
+        assertEquals(0, freeSeats(1));
+    }
+
+    /* Only the changes older than the epoch minus the retained ones are deleted. */
+    @Test
+    public void pruneKeepsTheRetainedChanges() throws Exception {
+        long changes = CacheSynchronizer.RETAINED_CHANGES + 100;
+
+        database.execute("INSERT INTO change_log (ROOM_TYPE, ROOM_ID) SELECT 'lab', 1 FROM SYSTEM_RANGE(1, "
+                + changes + ")");
+
+        CacheSynchronizer synchronizer = new CacheSynchronizer(hibernate, levelDb);
+        synchronizer.synchronize("lab");
+
+        assertEquals(changes, levelDb.getEpoch("lab"));
+        assertEquals(100, synchronizer.prune());
+        assertEquals(101, hibernate.getFirstChange());
+        assertEquals(0, synchronizer.prune());
+    }
+
+    /* Free seats of a laboratory as a student sees them, 0 once it is no longer listed. */
+    private int freeSeats(long laboratoryId) throws IOException {
+        for (Available laboratory : levelDb.getAvailable(null, "S")) {
+            if (laboratory.getId() == laboratoryId) {
+                return Integer.parseInt(laboratory.getAvailable());
+            }
+        }
+        return 0;
+    }
+
+    private Connection openTransaction() throws SQLException {
+        Connection connection = database.connect();
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /* Books the last seat of a laboratory the way HibernateDriver does, without committing. */
+    private static void closeLaboratory(Connection connection, long laboratoryId) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE laboratory SET LABORATORY_AVAILABLE = FALSE,"
+                    + " LABORATORY_VERSION = LABORATORY_VERSION + 1 WHERE LABORATORY_ID = " + laboratoryId);
+            statement.executeUpdate("INSERT INTO change_log (ROOM_TYPE, ROOM_ID) VALUES ('lab', " + laboratoryId + ")");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package it.unipi.RoomBooking.Database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.h2.tools.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Books laboratory seats from several threads against an H2 server, once through
+ * the connection pool and once opening a connection per unit of work, and logs
+ * the throughput of both. Connections go over TCP, as they do to MySQL. Runs in
+ * the load profile only: mvn -P load test.
+ */
+public class ConnectionPoolLoadTest {
+    private static final Logger logger = Logger.getLogger(ConnectionPoolLoadTest.class.getName());
+    /* hibernate.hikari.maximumPoolSize in persistence.xml */
+    private static final int MAXIMUM_POOL_SIZE = 10;
+
+    private static final int THREADS = 4;
+    private static final int STUDENTS = 100;
+    private static final int LABORATORIES = 4;
+
+    static {
+        // HibernateDriver.start() raises the root logger to SEVERE.
+        logger.setLevel(Level.INFO);
+    }
+
+    private Server server;
+
+    @Before
+    public void start() throws Exception {
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+    }
+
+    @After
+    public void exit() {
+        server.stop();
+    }
+
+    @Test
+    public void bookingThroughputWithAndWithoutPool() throws Exception {
+        // Not measured: loads and compiles the booking path before either run.
+        book("warmup", EmbeddedDatabase.HIKARI, true);
+
+        double unpooled = book("unpooled", UnpooledConnectionProvider.class.getName(), false);
+        double pooled = book("pooled", EmbeddedDatabase.HIKARI, true);
+
+        logger.info(String.format("Bookings/s over %d threads: %.0f pooled, %.0f unpooled", THREADS, pooled,
+                unpooled));
+        assertTrue("The pool should not be slower than a connection per unit of work", pooled >= unpooled);
+    }
+
+    /* Every student books every laboratory once; returns the bookings per second. */
+    private double book(String name, String provider, boolean pooled) throws Exception {
+        String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:" + name + ";DB_CLOSE_DELAY=-1";
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try (EmbeddedDatabase database = new EmbeddedDatabase(url, provider)) {
+            HibernateDriver hibernate = database.getHibernate();
+            if (pooled) {
+                assertNotNull(hibernate.getPoolMetrics());
+            } else {
+                assertNull(hibernate.getPoolMetrics());
+            }
+
+            database.execute("INSERT INTO building (BUILDING_ID, BUILDING_NAME, BUILDING_ADDRESS)"
+                    + " VALUES (1, 'B1', 'Largo Pontecorvo')");
+            database.execute("INSERT INTO student (STUDENT_ID, STUDENT_NAME, STUDENT_LASTNAME, STUDENT_EMAIL)"
+                    + " SELECT X, 'S', 'S', CONCAT('s', X, '@unipi.it') FROM SYSTEM_RANGE(1, " + STUDENTS + ")");
+            database.execute("INSERT INTO laboratory (LABORATORY_ID, LABORATORY_NAME, LABORATORY_CAPACITY,"
+                    + " LABORATORY_AVAILABLE, LABORATORY_VERSION, BUILDING_ID) SELECT X, CONCAT('L', X), "
+                    + STUDENTS + ", TRUE, 0, 1 FROM SYSTEM_RANGE(1, " + LABORATORIES + ")");
+
+            // Each thread books its own laboratory, so the run measures connections, not version conflicts.
+            List<Future<?>> bookers = new ArrayList<Future<?>>();
+            long begin = System.nanoTime();
+
+            for (int lab = 1; lab <= LABORATORIES; lab++) {
+                final long laboratoryId = lab;
+
+                bookers.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (long studentId = 1; studentId <= STUDENTS; studentId++) {
+                            hibernate.setLaboratoryBooking(studentId, laboratoryId);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> booker : bookers) {
+                booker.get();
+            }
+
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            assertEquals(STUDENTS * LABORATORIES, database.count("laboratory_booking"));
+            if (pooled) {
+                PoolMetrics metrics = hibernate.getPoolMetrics();
+                assertTrue(metrics.toString(), metrics.getTotal() <= MAXIMUM_POOL_SIZE);
+                assertEquals(0, metrics.getTimeouts());
+            }
+            return STUDENTS * LABORATORIES / seconds;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package it.unipi.RoomBooking.Database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * In-memory H2 database with the schema of the persistence unit, so that the
+ * tests of the MySQL paths run without a server. The database lives until close().
+ */
+class EmbeddedDatabase implements Closeable {
+    static final String DRIVER_MANAGER = "org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl";
+    static final String HIKARI = "org.hibernate.hikaricp.internal.HikariCPConnectionProvider";
+
+    private final String url;
+    private final Connection keepAlive;
+    private final HibernateDriver hibernate;
+
+    EmbeddedDatabase(String name) throws SQLException {
+        this("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", DRIVER_MANAGER);
+    }
+
+    /* The URL may point to an H2 server; the provider is a hibernate.connection.provider_class. */
+    EmbeddedDatabase(String url, String provider) throws SQLException {
+        // The MySQL driver settings of the pool are not H2 settings.
+        this.url = url + ";IGNORE_UNKNOWN_SETTINGS=TRUE";
+        keepAlive = DriverManager.getConnection(this.url, "sa", "");
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", this.url);
+        properties.put("javax.persistence.jdbc.driver", "org.h2.Driver");
+        properties.put("javax.persistence.jdbc.user", "sa");
+        properties.put("javax.persistence.jdbc.password", "");
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        properties.put("hibernate.connection.provider_class", provider);
+        hibernate = new HibernateDriver();
+        hibernate.start(properties);
+    }
+
+    HibernateDriver getHibernate() {
+        return hibernate;
+    }
+
+    /* A connection of its own, in auto-commit mode. */
+    Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    void execute(String... statements) throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    long count(String table) throws SQLException {
+        try (Statement statement = keepAlive.createStatement();
+                ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        hibernate.exit();
+        try {
+            keepAlive.createStatement().execute("DROP ALL OBJECTS");
+            keepAlive.close();
+        } catch (SQLException sqle) {
+            throw new IOException(sqle);
+        }
+    }
+}
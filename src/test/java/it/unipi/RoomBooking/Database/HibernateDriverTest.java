@@ -0,0 +1,176 @@
+package it.unipi.RoomBooking.Database;
+
+import static org.junit.Assert.assertEquals;
+
+import it.unipi.RoomBooking.Data.NORM.Available;
+import it.unipi.RoomBooking.Data.NORM.User;
+import it.unipi.RoomBooking.Exceptions.RoomNotAvailableException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/* Runs on an in-memory H2 database, no MySQL needed. */
+public class HibernateDriverTest {
+    private static final int ROUNDS = 20;
+    private static final int CROWD = 200;
+    private static final int SEATS = 30;
+
+    private EmbeddedDatabase database;
+    private HibernateDriver hibernate;
+    private ExecutorService executor;
+
+    @Before
+    public void start() throws Exception {
+        // Pooled as in production: the crowds wait for a connection instead of failing.
+        database = new EmbeddedDatabase("jdbc:h2:mem:bookings;DB_CLOSE_DELAY=-1", EmbeddedDatabase.HIKARI);
+        hibernate = database.getHibernate();
+        executor = Executors.newFixedThreadPool(2);
+
+        database.execute("INSERT INTO building (BUILDING_ID, BUILDING_NAME, BUILDING_ADDRESS)"
+                + " VALUES (1, 'B1', 'Largo Pontecorvo')");
+        for (int person = 1; person <= 2; person++) {
+            database.execute(
+                    "INSERT INTO student (STUDENT_ID, STUDENT_NAME, STUDENT_LASTNAME, STUDENT_EMAIL) VALUES (" + person
+                            + ", 'S', 'S', 's" + person + "@unipi.it')",
+                    "INSERT INTO teacher (TEACHER_ID, TEACHER_NAME, TEACHER_LASTNAME, TEACHER_EMAIL) VALUES (" + person
+                            + ", 'T', 'T', 't" + person + "@unipi.it')");
+        }
+        for (int room = 1; room <= ROUNDS; room++) {
+            database.execute(
+                    "INSERT INTO laboratory (LABORATORY_ID, LABORATORY_NAME, LABORATORY_CAPACITY,"
+                            + " LABORATORY_AVAILABLE, LABORATORY_VERSION, BUILDING_ID) VALUES (" + room + ", 'L"
+                            + room + "', 1, TRUE, 0, 1)",
+                    "INSERT INTO classroom (CLASSROOM_ID, CLASSROOM_NAME, CLASSROOM_CAPACITY,"
+                            + " CLASSROOM_AVAILABLE, CLASSROOM_VERSION, BUILDING_ID) VALUES (" + room + ", 'C"
+                            + room + "', 30, TRUE, 0, 1)");
+        }
+    }
+
+    @After
+    public void exit() throws Exception {
+        executor.shutdownNow();
+        database.close();
+    }
+
+    /* Two students race for the only seat of a laboratory: one gets it, the other is told it is gone. */
+    @Test
+    public void lastSeatIsBookedOnce() throws Exception {
+        for (int room = 1; room <= ROUNDS; room++) {
+            final long laboratoryId = room;
+
+            assertEquals(1, race(studentId -> hibernate.setLaboratoryBooking(studentId, laboratoryId)));
+        }
+        assertEquals(ROUNDS, database.count("laboratory_booking"));
+    }
+
+    /* Two teachers race for the same slot of a classroom: one gets it, the other is told it is gone. */
+    @Test
+    public void slotIsBookedOnce() throws Exception {
+        for (int room = 1; room <= ROUNDS; room++) {
+            final long classroomId = room;
+
+            assertEquals(1, race(teacherId -> hibernate.setClassroomBooking(teacherId, classroomId, "m")));
+        }
+        assertEquals(ROUNDS, database.count("classroom_booking"));
+    }
+
+    /* A crowd of students races for the seats of one laboratory: exactly the seats are booked, the rest is refused. */
+    @Test
+    public void crowdFillsTheLaboratory() throws Exception {
+        database.execute("INSERT INTO laboratory (LABORATORY_ID, LABORATORY_NAME, LABORATORY_CAPACITY,"
+                + " LABORATORY_AVAILABLE, LABORATORY_VERSION, BUILDING_ID) VALUES (100, 'L100', " + SEATS
+                + ", TRUE, 0, 1)");
+        addPeople("student", "STUDENT");
+
+        assertEquals(SEATS, crowd(studentId -> hibernate.setLaboratoryBooking(studentId, 100)));
+        assertEquals(SEATS, database.count("laboratory_booking"));
+    }
+
+    /* A crowd of teachers races for one slot of a classroom: one gets it, the rest is refused. */
+    @Test
+    public void crowdBooksTheSlotOnce() throws Exception {
+        addPeople("teacher", "TEACHER");
+
+        assertEquals(1, crowd(teacherId -> hibernate.setClassroomBooking(teacherId, 1, "m")));
+        assertEquals(1, database.count("classroom_booking"));
+    }
+
+    /* The import skips rows already stored or repeated in the chunk, whatever their case. */
+    @Test
+    public void importSkipsDuplicates() throws Exception {
+        assertEquals(1, hibernate.insertUsers("S", Arrays.asList(new User(0, "S", "S", "S1@unipi.it", "S"),
+                new User(0, "N", "N", "new@unipi.it", "S"), new User(0, "N", "N", "New@Unipi.it", "S"))));
+        assertEquals(3, database.count("student"));
+
+        assertEquals(1, hibernate.insertRooms("cla", Arrays.asList(new Available("c1", "B1", null, "cla", 0, 30),
+                new Available("C21", "B1", null, "cla", 0, 30), new Available("C21", "B1", null, "cla", 0, 30))));
+        assertEquals(ROUNDS + 1, database.count("classroom"));
+    }
+
+    private interface Booking {
+        void book(long personId) throws RoomNotAvailableException;
+    }
+
+    /* Persons 3 to CROWD, next to the two of every test. */
+    private void addPeople(String table, String prefix) throws Exception {
+        database.execute("INSERT INTO " + table + " (" + prefix + "_ID, " + prefix + "_NAME, " + prefix + "_LASTNAME, "
+                + prefix + "_EMAIL) SELECT X, 'P', 'P', CONCAT('p', X, '@unipi.it') FROM SYSTEM_RANGE(3, " + CROWD + ")");
+    }
+
+    /* Runs the booking for persons 1 to CROWD at the same time, returns how many succeeded. */
+    private int crowd(Booking booking) throws Exception {
+        ExecutorService crowd = Executors.newFixedThreadPool(CROWD);
+        try {
+            return race(crowd, CROWD, booking);
+        } finally {
+            crowd.shutdownNow();
+        }
+    }
+
+    /* Runs the booking for persons 1 and 2 at the same time, returns how many succeeded. */
+    private int race(Booking booking) throws Exception {
+        return race(executor, 2, booking);
+    }
+
+    private static int race(ExecutorService executor, int persons, Booking booking) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(persons);
+        List<Future<Boolean>> bookers = new ArrayList<Future<Boolean>>();
+
+        for (int person = 1; person <= persons; person++) {
+            final long personId = person;
+
+            bookers.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    barrier.await();
+                    try {
+                        booking.book(personId);
+                        return true;
+                    } catch (RoomNotAvailableException rnae) {
+                        return false;
+                    }
+                }
+            }));
+        }
+
+        int booked = 0;
+        for (Future<Boolean> booker : bookers) {
+            try {
+                booked += booker.get() ? 1 : 0;
+            } catch (ExecutionException ee) {
+                throw new AssertionError("A booking failed with an unexpected error", ee.getCause());
+            }
+        }
+        return booked;
+    }
+}
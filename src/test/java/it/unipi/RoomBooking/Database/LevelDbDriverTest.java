@@ -0,0 +1,176 @@
+package it.unipi.RoomBooking.Database;
+
+import static org.fusesource.leveldbjni.JniDBFactory.asString;
+import static org.fusesource.leveldbjni.JniDBFactory.bytes;
+import static org.fusesource.leveldbjni.JniDBFactory.factory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import it.unipi.RoomBooking.Data.NORM.Booked;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.Options;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/* Runs on LevelDB stores in a temporary directory, no MySQL needed. */
+public class LevelDbDriverTest {
+    private static final int USERS = 8;
+    private static final int MOVES = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File available;
+    private File bookings;
+    private LevelDbDriver levelDb;
+
+    @Before
+    public void start() throws Exception {
+        available = folder.newFolder("available");
+        bookings = folder.newFolder("bookings");
+        levelDb = new LevelDbDriver(available.getPath(), bookings.getPath());
+        levelDb.start();
+    }
+
+    @After
+    public void exit() {
+        levelDb.exit();
+    }
+
+    /*
+     * Each user moves one laboratory booking around four rooms while other
+     * threads put and delete bookings on the same rooms and readers list the
+     * bookings: a reader must always see the user in exactly one room.
+     */
+    @Test
+    public void movesStayAtomicUnderConcurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(USERS * 3);
+        AtomicBoolean moving = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+
+        for (int user = 1; user <= USERS; user++) {
+            final long userId = user;
+            levelDb.putBooked(userId, "lab", 1, "L1", null);
+
+            writers.add(executor.submit(call(() -> {
+                for (int i = 0; i < MOVES; i++) {
+                    levelDb.moveBooked(userId, "lab", 1 + i % 4, 1 + (i + 1) % 4, "L" + (1 + (i + 1) % 4), null);
+                }
+            })));
+            // Another user books and cancels the same rooms meanwhile.
+            writers.add(executor.submit(call(() -> {
+                for (int i = 0; i < MOVES; i++) {
+                    levelDb.putBooked(userId + USERS, "lab", 1 + i % 4, "L" + (1 + i % 4), null);
+                    levelDb.deleteBooked("lab", 1 + i % 4, userId + USERS);
+                }
+            })));
+            readers.add(executor.submit(call(() -> {
+                while (moving.get()) {
+                    assertEquals(1, levelDb.getBooked(userId, "S").size());
+                }
+            })));
+        }
+
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        moving.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (long user = 1; user <= USERS; user++) {
+            Collection<Booked> bookings = levelDb.getBooked(user, "S");
+            assertEquals(1, bookings.size());
+            // MOVES is a multiple of four: every booking is back in the first room.
+            assertEquals(1, bookings.iterator().next().getId());
+            assertTrue(levelDb.getBooked(user + USERS, "S").isEmpty());
+        }
+    }
+
+    /* A classroom booking keeps its key: a move only changes the schedule, which is never missing. */
+    @Test
+    public void classroomMovesNeverLoseTheSchedule() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicBoolean moving = new AtomicBoolean(true);
+        levelDb.putBooked(1, "cla", 10, "C1", "m");
+
+        Future<?> writer = executor.submit(call(() -> {
+            for (int i = 0; i < MOVES; i++) {
+                levelDb.moveBooked(1, "cla", 10, 10, "C" + i, i % 2 == 0 ? "a" : "m");
+            }
+        }));
+        Future<?> reader = executor.submit(call(() -> {
+            while (moving.get()) {
+                Collection<Booked> bookings = levelDb.getBooked(1, "T");
+                assertEquals(1, bookings.size());
+                assertNotNull(bookings.iterator().next().getSchedule());
+            }
+        }));
+
+        writer.get(60, TimeUnit.SECONDS);
+        moving.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        Booked booked = levelDb.getBooked(1, "T").iterator().next();
+        assertEquals("C" + (MOVES - 1), booked.getRoomName());
+        assertEquals("m", booked.getSchedule());
+    }
+
+    /* Format 3 kept a schedule index of the classrooms under idx:cla:, format 4 serves the lists from memory. */
+    @Test
+    public void scheduleIndexIsDroppedFromFormatThreeStores() throws Exception {
+        levelDb.putAvailable("cla", 1, "C1", "B1", 30, "f");
+        levelDb.exit();
+
+        try (DB store = factory.open(available, new Options())) {
+            store.put(bytes("idx:cla:f:1"), new byte[0]);
+            store.put(bytes("meta:format"), bytes("3"));
+        }
+
+        levelDb = new LevelDbDriver(available.getPath(), bookings.getPath());
+        levelDb.start();
+        assertEquals(1, levelDb.getAvailable("f", "T").size());
+        levelDb.exit();
+
+        try (DB store = factory.open(available, new Options())) {
+            assertNull(store.get(bytes("idx:cla:f:1")));
+            assertEquals("4", asString(store.get(bytes("meta:format"))));
+            assertNotNull(store.get(bytes("cla:1")));
+        }
+
+        levelDb = new LevelDbDriver(available.getPath(), bookings.getPath());
+        levelDb.start();
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private static Callable<Void> call(Work work) {
+        return () -> {
+            work.run();
+            return null;
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package it.unipi.RoomBooking.Database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+
+/* Opens a new JDBC connection for every request and closes it on release, the way the unit ran before the pool. */
+public class UnpooledConnectionProvider implements ConnectionProvider, Configurable {
+    private static final long serialVersionUID = 1L;
+
+    private String url;
+    private String user;
+    private String password;
+
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        url = (String) configurationValues.get("javax.persistence.jdbc.url");
+        user = (String) configurationValues.get("javax.persistence.jdbc.user");
+        password = (String) configurationValues.get("javax.persistence.jdbc.password");
+    }
+
+    public Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return ConnectionProvider.class.equals(unwrapType) || UnpooledConnectionProvider.class.equals(unwrapType);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (isUnwrappableAs(unwrapType)) {
+            return (T) this;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+}